@@ -0,0 +1,56 @@
+package ru.yandex.practicum.filmorate.config;
+
+import lombok.Getter;
+
+/**
+ * Лимит одновременных запросов, подстраиваемый по задержке (AIMD): ответ быстрее целевой задержки
+ * поднимает лимит примерно на единицу за каждый лимит ответов, медленный - уменьшает его на 10%.
+ */
+public class AdaptiveLimiter {
+    private static final double DECREASE_FACTOR = 0.9;
+
+    @Getter
+    private final String name;
+    private final int min;
+    private final int max;
+    private final long targetLatencyNanos;
+    private double limit;
+    private int inFlight;
+
+    public AdaptiveLimiter(String name, int min, int max, long targetLatencyNanos) {
+        this.name = name;
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.limit = this.max;
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void release(long latencyNanos) {
+        inFlight--;
+        if (latencyNanos > targetLatencyNanos) {
+            limit = Math.max(min, limit * DECREASE_FACTOR);
+        } else {
+            limit = Math.min(max, limit + 1.0 / limit);
+        }
+    }
+
+    public synchronized boolean isAtMinimum() {
+        return (int) limit <= min;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
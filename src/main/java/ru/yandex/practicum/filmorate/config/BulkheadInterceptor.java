@@ -0,0 +1,90 @@
+package ru.yandex.practicum.filmorate.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import ru.yandex.practicum.filmorate.controller.Bulkhead;
+import ru.yandex.practicum.filmorate.exception.OverloadedException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускает запрос к методу с @Bulkhead, только если у его лимита есть свободное место, иначе сразу
+ * отвечает 429/503 с Retry-After. Состояние лимитов видно в метриках filmorate.bulkhead.limit,
+ * filmorate.bulkhead.in_flight и filmorate.bulkhead.rejected.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BulkheadInterceptor implements HandlerInterceptor {
+    private static final String STARTED_AT = BulkheadInterceptor.class.getName() + ".startedAt";
+    private static final String LIMITER = BulkheadInterceptor.class.getName() + ".limiter";
+
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // Асинхронный метод проходит интерцепторы второй раз при отправке результата, место уже занято
+        if (request.getDispatcherType() == DispatcherType.ASYNC
+                || !(handler instanceof HandlerMethod method) || !method.hasMethodAnnotation(Bulkhead.class)) {
+            return true;
+        }
+
+        AdaptiveLimiter limiter = limiters.computeIfAbsent(method.getMethodAnnotation(Bulkhead.class).value(),
+                this::createLimiter);
+        if (!limiter.tryAcquire()) {
+            boolean degraded = limiter.isAtMinimum();
+            Counter.builder("filmorate.bulkhead.rejected")
+                    .tag("name", limiter.getName())
+                    .tag("status", degraded ? "503" : "429")
+                    .register(meterRegistry)
+                    .increment();
+            log.warn("Bulkhead {} is full: limit = {}", limiter.getName(), limiter.getLimit());
+
+            throw new OverloadedException("Слишком много одновременных запросов, повторите позже", degraded,
+                    environment.getProperty("filmorate.bulkhead.retry-after-seconds", Long.class, 1L));
+        }
+
+        request.setAttribute(LIMITER, limiter);
+        request.setAttribute(STARTED_AT, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(LIMITER) instanceof AdaptiveLimiter limiter) {
+            request.removeAttribute(LIMITER);
+            limiter.release(System.nanoTime() - (long) request.getAttribute(STARTED_AT));
+        }
+    }
+
+    private AdaptiveLimiter createLimiter(String name) {
+        String prefix = "filmorate.bulkhead." + name;
+        AdaptiveLimiter limiter = new AdaptiveLimiter(name,
+                environment.getProperty(prefix + ".min", Integer.class, 1),
+                environment.getProperty(prefix + ".max", Integer.class, 8),
+                TimeUnit.MILLISECONDS.toNanos(environment.getProperty(prefix + ".target-latency-ms", Long.class, 500L)));
+
+        Gauge.builder("filmorate.bulkhead.limit", limiter, AdaptiveLimiter::getLimit)
+                .tag("name", name)
+                .register(meterRegistry);
+        Gauge.builder("filmorate.bulkhead.in_flight", limiter, AdaptiveLimiter::getInFlight)
+                .tag("name", name)
+                .register(meterRegistry);
+        return limiter;
+    }
+}
@@ -0,0 +1,28 @@
+package ru.yandex.practicum.filmorate.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.dal.GuardedJdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.dal.QueryClass;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+@Configuration
+public class JdbcConfig {
+    // Заменяет автоконфигурированный JdbcTemplate, NamedParameterJdbcTemplate строится поверх него же
+    @Bean
+    public JdbcTemplate jdbcTemplate(DataSource dataSource,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${filmorate.db.query-timeout.point:2}") int pointTimeout,
+                                     @Value("${filmorate.db.query-timeout.list:5}") int listTimeout,
+                                     @Value("${filmorate.db.query-timeout.analytic:10}") int analyticTimeout) {
+        return new GuardedJdbcTemplate(dataSource, Map.of(
+                QueryClass.POINT, pointTimeout,
+                QueryClass.LIST, listTimeout,
+                QueryClass.ANALYTIC, analyticTimeout), meterRegistry);
+    }
+}
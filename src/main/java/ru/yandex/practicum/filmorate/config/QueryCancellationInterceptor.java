@@ -0,0 +1,57 @@
+package ru.yandex.practicum.filmorate.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import ru.yandex.practicum.filmorate.storage.dal.QueryContext;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Для асинхронных методов контроллеров (возвращающих Callable) привязывает к потоку выполнения отмену
+ * запросов к базе. Если клиент отключился или истёк тайм-аут асинхронного запроса, выполняющийся
+ * JDBC-запрос отменяется.
+ */
+@Slf4j
+public class QueryCancellationInterceptor implements CallableProcessingInterceptor {
+    private static final String CANCELLATION = QueryCancellationInterceptor.class.getName() + ".cancellation";
+
+    @Override
+    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+        request.setAttribute(CANCELLATION, new QueryContext.Cancellation(), RequestAttributes.SCOPE_REQUEST);
+    }
+
+    @Override
+    public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+        QueryContext.bind(cancellation(request));
+    }
+
+    @Override
+    public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+        QueryContext.unbind();
+    }
+
+    @Override
+    public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+        cancel(request, "async timeout");
+        return RESULT_NONE;
+    }
+
+    @Override
+    public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) {
+        cancel(request, "client disconnected");
+        return RESULT_NONE;
+    }
+
+    private void cancel(NativeWebRequest request, String reason) {
+        QueryContext.Cancellation cancellation = cancellation(request);
+        if (cancellation != null && cancellation.cancel()) {
+            log.info("Running query cancelled: {}", reason);
+        }
+    }
+
+    private QueryContext.Cancellation cancellation(NativeWebRequest request) {
+        return (QueryContext.Cancellation) request.getAttribute(CANCELLATION, RequestAttributes.SCOPE_REQUEST);
+    }
+}
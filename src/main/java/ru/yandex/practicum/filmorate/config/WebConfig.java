@@ -0,0 +1,50 @@
+package ru.yandex.practicum.filmorate.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+@RequiredArgsConstructor
+public class WebConfig implements WebMvcConfigurer {
+    // Лимиты методов, возвращающих Callable
+    private static final List<String> ASYNC_BULKHEADS = List.of("recommendations", "search", "popular", "common");
+
+    private final BulkheadInterceptor bulkheadInterceptor;
+    private final Environment environment;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(bulkheadInterceptor);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(mvcAsyncExecutor());
+        configurer.registerCallableInterceptors(new QueryCancellationInterceptor());
+    }
+
+    /**
+     * Поток на каждое место в лимитах асинхронных методов и без очереди: запрос, пропущенный лимитом,
+     * сразу получает поток, и ожидание в очереди не попадает в задержку, по которой лимит подстраивается.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor mvcAsyncExecutor() {
+        int threads = ASYNC_BULKHEADS.stream()
+                .mapToInt(name -> environment.getProperty("filmorate.bulkhead." + name + ".max", Integer.class, 8))
+                .sum();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("mvc-async-");
+        return executor;
+    }
+}
@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Ограничение числа одновременных вызовов метода контроллера. Методы с одинаковым value делят один лимит,
+ * настройки - filmorate.bulkhead.{value}.max, .min и .target-latency-ms.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Bulkhead {
+    String value();
+}
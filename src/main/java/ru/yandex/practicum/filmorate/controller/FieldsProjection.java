@@ -0,0 +1,74 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.UserField;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Разбор параметра fields и отсечение незапрошенных полей при сериализации.
+ */
+@Slf4j
+public class FieldsProjection {
+    public static final String FILTER_ID = "fieldsFilter";
+
+    public static Set<FilmField> parseFilmFields(String fields) {
+        return parse(fields, FilmField.class, FilmField::getJsonName, FilmField.ID);
+    }
+
+    public static Set<UserField> parseUserFields(String fields) {
+        return parse(fields, UserField.class, UserField::getJsonName, UserField.ID);
+    }
+
+    public static MappingJacksonValue projectFilms(Object body, Set<FilmField> fields) {
+        Set<String> names = fields.stream().map(FilmField::getJsonName).collect(Collectors.toSet());
+        // likes заполняются только при expand=likes, поэтому их не отсекаем
+        names.add("likes");
+        return project(body, names);
+    }
+
+    public static MappingJacksonValue projectUsers(Object body, Set<UserField> fields) {
+        return project(body, fields.stream().map(UserField::getJsonName).collect(Collectors.toSet()));
+    }
+
+    private static MappingJacksonValue project(Object body, Set<String> names) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        value.setFilters(new SimpleFilterProvider()
+                .addFilter(FILTER_ID, SimpleBeanPropertyFilter.filterOutAllExcept(names)));
+        return value;
+    }
+
+    private static <E extends Enum<E>> Set<E> parse(String fields, Class<E> type,
+                                                    Function<E, String> jsonName, E id) {
+        Set<E> all = EnumSet.allOf(type);
+        if (fields == null || fields.isBlank()) {
+            return all;
+        }
+
+        Set<E> result = EnumSet.of(id);
+        Set<String> unknown = new HashSet<>();
+        for (String name : Arrays.stream(fields.split(",")).map(String::trim).toList()) {
+            all.stream()
+                    .filter(field -> jsonName.apply(field).equalsIgnoreCase(name))
+                    .findFirst()
+                    .ifPresentOrElse(result::add, () -> unknown.add(name));
+        }
+
+        if (!unknown.isEmpty()) {
+            log.warn("Unknown fields requested: {}", unknown);
+            throw new ValidationException("Неизвестные поля: " + unknown);
+        }
+
+        return result;
+    }
+}
@@ -1,25 +1,45 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FacetedFilms;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmCursor;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmListQuery;
+import ru.yandex.practicum.filmorate.model.FilmSort;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
-import java.util.Collection;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
+import static ru.yandex.practicum.filmorate.controller.FieldsProjection.parseFilmFields;
+import static ru.yandex.practicum.filmorate.controller.FieldsProjection.projectFilms;
 import static ru.yandex.practicum.filmorate.controller.PathVariableValidator.checkIds;
 
 @RestController
 @RequestMapping("/films")
 @Slf4j
 public class FilmController {
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final FilmService filmService;
+    private final PopularResponseCache popularResponseCache;
 
-    public FilmController(FilmService filmService) {
+    public FilmController(FilmService filmService, PopularResponseCache popularResponseCache) {
         this.filmService = filmService;
+        this.popularResponseCache = popularResponseCache;
     }
 
     @PostMapping
@@ -35,18 +55,86 @@ public class FilmController {
     }
 
     @GetMapping
-    public Collection<Film> findAll() {
+    public ResponseEntity<MappingJacksonValue> findAll(
+            @RequestParam(required = false) String fields,
+            @RequestParam(required = false) String sort,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate releasedFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate releasedTo,
+            @RequestParam(required = false) Long durationMin,
+            @RequestParam(required = false) Long durationMax,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int count) {
         log.info("Running GET method: get all films");
 
-        return filmService.findAll();
+        Set<FilmField> filmFields = parseFilmFields(fields);
+        // Без сортировки, фильтров и cursor ответ прежний - все фильмы одним списком
+        if (sort == null && cursor == null && releasedFrom == null && releasedTo == null
+                && durationMin == null && durationMax == null) {
+            return ResponseEntity.ok(projectFilms(filmService.findAll(filmFields), filmFields));
+        }
+        log.trace("Parameters: sort={}, order={}, releasedFrom={}, releasedTo={}, durationMin={}, durationMax={}, " +
+                "cursor={}, count={}", sort, order, releasedFrom, releasedTo, durationMin, durationMax, cursor, count);
+
+        if (!"asc".equalsIgnoreCase(order) && !"desc".equalsIgnoreCase(order)) {
+            throw new ValidationException("order должен быть 'asc' или 'desc'");
+        }
+        FilmSort filmSort = FilmSort.fromParameter(sort == null ? FilmSort.NAME.getParameter() : sort);
+        FilmListQuery query = FilmListQuery.builder()
+                .sort(filmSort)
+                .descending("desc".equalsIgnoreCase(order))
+                .releasedFrom(releasedFrom)
+                .releasedTo(releasedTo)
+                .durationMin(durationMin)
+                .durationMax(durationMax)
+                .after(cursor == null || cursor.isBlank() ? null : FilmCursor.decode(cursor, filmSort))
+                .count(count)
+                .build();
+
+        List<Film> films = filmService.findPage(query, filmFields);
+        if (films.size() < count) {
+            return ResponseEntity.ok(projectFilms(films, filmFields));
+        }
+        return ResponseEntity.ok()
+                .header(NEXT_CURSOR_HEADER, FilmCursor.after(films.getLast(), filmSort).encode())
+                .body(projectFilms(films, filmFields));
     }
 
     @GetMapping("/{id}")
-    public Film findById(@PathVariable Long id) {
+    public MappingJacksonValue findById(@PathVariable Long id,
+                                        @RequestParam(required = false) String expand,
+                                        @RequestParam(required = false) String fields,
+                                        WebRequest request) {
         log.info("Running GET method find film by id");
 
         checkIds(id);
-        return filmService.findById(id);
+        // При совпадении If-None-Match отвечаем 304, не загружая и не сериализуя фильм
+        if (request.checkNotModified(filmService.etag(id, expand, fields))) {
+            return null;
+        }
+        Set<FilmField> filmFields = parseFilmFields(fields);
+        return projectFilms(filmService.findById(id, expand, filmFields), filmFields);
+    }
+
+    @GetMapping("/{id}/similar")
+    public MappingJacksonValue getSimilarFilms(@PathVariable Long id,
+                                               @RequestParam(defaultValue = "10") int count,
+                                               @RequestParam(required = false) String fields) {
+        log.info("Running GET method find similar films");
+
+        checkIds(id);
+        Set<FilmField> filmFields = parseFilmFields(fields);
+        return projectFilms(filmService.getSimilarFilms(id, count, filmFields), filmFields);
+    }
+
+    @GetMapping("/{id}/likes")
+    public List<Long> findLikes(@PathVariable Long id,
+                                @RequestParam(defaultValue = "0") int from,
+                                @RequestParam(defaultValue = "100") int size) {
+        log.info("Running GET method find likes of film");
+
+        checkIds(id);
+        return filmService.findLikes(id, from, size);
     }
 
     @PutMapping("/{id}/like/{userId}")
@@ -65,31 +153,89 @@ public class FilmController {
         return filmService.deleteLike(id, userId);
     }
 
+    // Готовый ответ из кэша отдаётся сразу в потоке запроса, в пул асинхронных запросов уходит только чтение из базы
     @GetMapping("/popular")
-    public List<Film> getPopularFilms(
+    @Bulkhead("popular")
+    public Object getPopularFilms(
             @RequestParam(defaultValue = "10") int count,
             @RequestParam(required = false) Integer genreId,
-            @RequestParam(required = false) Integer year) {
+            @RequestParam(required = false) Integer year,
+            @RequestParam(required = false) String fields,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
 
         log.info("Running GET method find most Popular films");
-        log.trace("Parameters: count={}, genreId={}, year={}", count, genreId, year);
+        log.trace("Parameters: count={}, genreId={}, year={}, fields={}", count, genreId, year, fields);
+
+        // Полные ответы отдаются готовыми байтами из кэша
+        if (fields == null) {
+            Optional<ResponseEntity<byte[]>> cached = popularResponseCache.getIfFresh(count, genreId, year,
+                    acceptEncoding);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+            return (Callable<ResponseEntity<?>>) () -> popularResponseCache.get(count, genreId, year, acceptEncoding,
+                    () -> filmService.getMostPopularFilms(count, genreId, year));
+        }
+
+        Set<FilmField> filmFields = parseFilmFields(fields);
+        return (Callable<ResponseEntity<?>>) () -> ResponseEntity.ok(projectFilms(filmService.getMostPopularFilms(count, genreId, year, filmFields), filmFields));
+    }
+
+    @GetMapping("/trending")
+    public List<Film> getTrendingFilms(@RequestParam(defaultValue = "24h") String window,
+                                       @RequestParam(defaultValue = "10") int count) {
+        log.info("Running GET method find trending films");
+        log.trace("Parameters: window={}, count={}", window, count);
+        return filmService.getTrendingFilms(window, count);
+    }
+
+    @GetMapping("/popular/facets")
+    @Bulkhead("popular")
+    public FacetedFilms getPopularFilmsWithFacets(
+            @RequestParam(defaultValue = "10") int count,
+            @RequestParam(required = false) List<Long> genreIds,
+            @RequestParam(defaultValue = "any") String genreMatch,
+            @RequestParam(required = false) Long mpaId,
+            @RequestParam(required = false) Integer decade,
+            @RequestParam(required = false) Long directorId) {
 
-        return filmService.getMostPopularFilms(count, genreId, year);
+        log.info("Running GET method find popular films with facets");
+        log.trace("Parameters: count={}, genreIds={}, genreMatch={}, mpaId={}, decade={}, directorId={}",
+                count, genreIds, genreMatch, mpaId, decade, directorId);
+        return filmService.getPopularFilmsWithFacets(count, genreIds, genreMatch, mpaId, decade, directorId);
     }
 
     @GetMapping("/director/{directorId}")
-    public List<Film> getFilmsByDirector(@PathVariable Long directorId, @RequestParam String sortBy) {
+    public MappingJacksonValue getFilmsByDirector(@PathVariable Long directorId,
+                                                  @RequestParam String sortBy,
+                                                  @RequestParam(required = false) String fields) {
         log.info("Running GET METHOD getFilmsByDirector");
         checkIds(directorId);
-        return filmService.getFilmsByDirector(directorId, sortBy);
+        Set<FilmField> filmFields = parseFilmFields(fields);
+        return projectFilms(filmService.getFilmsByDirector(directorId, sortBy, filmFields), filmFields);
     }
 
     @GetMapping("/common")
-    public Collection<Film> findCommonFilms(@RequestParam Long userId, @RequestParam Long friendId) {
+    @Bulkhead("common")
+    public Callable<MappingJacksonValue> findCommonFilms(@RequestParam(required = false) Long userId,
+                                                         @RequestParam(required = false) Long friendId,
+                                                         @RequestParam(required = false) List<Long> userIds,
+                                                         @RequestParam(defaultValue = "10") int count,
+                                                         @RequestParam(required = false) String fields) {
         log.info("Running GET METHOD find common films");
+        Set<FilmField> filmFields = parseFilmFields(fields);
+        // userIds - группа до 50 человек: общие любимые фильмы и рекомендации, иначе прежний ответ для двух друзей
+        if (userIds != null) {
+            log.trace("Parameters: userIds={}, count={}", userIds, count);
+            checkIds(userIds.toArray(Long[]::new));
+            return () -> projectFilms(filmService.getGroupFilms(userIds, count, filmFields), filmFields);
+        }
+        if (userId == null || friendId == null) {
+            throw new ValidationException("Нужно указать userId и friendId или userIds");
+        }
         checkIds(userId, friendId);
 
-        return filmService.getCommonFilms(userId, friendId);
+        return () -> projectFilms(filmService.getCommonFilms(userId, friendId, filmFields), filmFields);
     }
 
     @DeleteMapping("{id}")
@@ -101,7 +247,11 @@ public class FilmController {
     }
 
     @GetMapping("/search")
-    public List<Film> searchFilms(@RequestParam String query, @RequestParam String by) {
-        return filmService.searchFilms(query, by);
+    @Bulkhead("search")
+    public Callable<MappingJacksonValue> searchFilms(@RequestParam String query,
+                                                     @RequestParam String by,
+                                                     @RequestParam(required = false) String fields) {
+        Set<FilmField> filmFields = parseFilmFields(fields);
+        return () -> projectFilms(filmService.searchFilms(query, by, filmFields), filmFields);
     }
 }
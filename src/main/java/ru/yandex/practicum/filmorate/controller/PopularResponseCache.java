@@ -0,0 +1,127 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.InternalServerException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.service.EntityVersions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Готовые байты ответа GET /films/popular без параметра fields, по ключу (count, genreId, year).
+ * После любого изменения фильмов или лайков запись ещё отдаётся в течение invalidate-window-ms
+ * с момента её построения, поэтому поток лайков пересобирает каждый ответ не чаще раза за окно.
+ */
+@Slf4j
+@Component
+public class PopularResponseCache {
+    private final Cache<String, Entry> cache;
+    private final ObjectMapper objectMapper;
+    private final EntityVersions entityVersions;
+    private final long windowMillis;
+    private final boolean gzip;
+
+    public PopularResponseCache(ObjectMapper objectMapper,
+                                EntityVersions entityVersions,
+                                MeterRegistry meterRegistry,
+                                @Value("${filmorate.cache.popular.max-entries:256}") long maxEntries,
+                                @Value("${filmorate.cache.popular.invalidate-window-ms:200}") long windowMillis,
+                                @Value("${filmorate.cache.popular.gzip:true}") boolean gzip) {
+        this.objectMapper = objectMapper;
+        this.entityVersions = entityVersions;
+        this.windowMillis = windowMillis;
+        this.gzip = gzip;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "popular_responses");
+    }
+
+    // Ответ из кэша без обращения к базе, если запись есть и не устарела
+    public Optional<ResponseEntity<byte[]>> getIfFresh(int count, Integer genreId, Integer year,
+                                                       String acceptEncoding) {
+        Entry entry = cache.getIfPresent(key(count, genreId, year));
+        if (entry == null || entry.isStale(entityVersions.changes(EntityVersions.Type.FILM), windowMillis)) {
+            return Optional.empty();
+        }
+        return Optional.of(response(entry, acceptEncoding));
+    }
+
+    public ResponseEntity<byte[]> get(int count, Integer genreId, Integer year, String acceptEncoding,
+                                      Supplier<List<Film>> loader) {
+        String key = key(count, genreId, year);
+        long changes = entityVersions.changes(EntityVersions.Type.FILM);
+
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null || entry.isStale(changes, windowMillis)) {
+            entry = build(changes, loader.get());
+            cache.put(key, entry);
+            log.debug("Popular response {} rebuilt: {} bytes", key, entry.json.length);
+        }
+        return response(entry, acceptEncoding);
+    }
+
+    private static String key(int count, Integer genreId, Integer year) {
+        return count + ":" + (genreId == null ? "" : genreId) + ":" + (year == null ? "" : year);
+    }
+
+    private static ResponseEntity<byte[]> response(Entry entry, String acceptEncoding) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (entry.gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(entry.gzipped);
+        }
+        return response.body(entry.json);
+    }
+
+    private Entry build(long changes, List<Film> films) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(films);
+            return new Entry(changes, System.currentTimeMillis(), json, gzip ? gzip(json) : null);
+        } catch (JsonProcessingException e) {
+            throw new InternalServerException("Не удалось сериализовать список популярных фильмов");
+        }
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(json);
+        } catch (IOException e) {
+            throw new InternalServerException("Не удалось сжать список популярных фильмов");
+        }
+        return out.toByteArray();
+    }
+
+    @RequiredArgsConstructor
+    private static final class Entry {
+        private final long changes;
+        private final long builtAt;
+        private final byte[] json;
+        private final byte[] gzipped;
+
+        // Версия прочитана до загрузки: изменение во время загрузки тоже делает запись устаревшей
+        private boolean isStale(long currentChanges, long windowMillis) {
+            return changes != currentChanges && System.currentTimeMillis() - builtAt >= windowMillis;
+        }
+    }
+}
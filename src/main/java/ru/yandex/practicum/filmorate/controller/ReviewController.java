@@ -2,17 +2,23 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.model.ReviewCursor;
 import ru.yandex.practicum.filmorate.service.ReviewService;
 
 import java.util.Collection;
+import java.util.List;
 
 @RestController
 @RequestMapping("/reviews")
 @Slf4j
 @RequiredArgsConstructor
 public class ReviewController {
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final ReviewService reviewService;
 
     @PostMapping
@@ -38,18 +44,37 @@ public class ReviewController {
     }
 
     @GetMapping("/{id}")
-    public Review findById(@PathVariable Long id) {
+    public Review findById(@PathVariable Long id, WebRequest request) {
         log.info("Starting GET METHOD find by id");
         PathVariableValidator.checkIds(id);
 
+        if (request.checkNotModified(reviewService.etag(id))) {
+            return null;
+        }
+
         return reviewService.findById(id);
     }
 
     @GetMapping
-    public Collection<Review> findAll(@RequestParam (required = false) Long filmId,
-                                      @RequestParam(defaultValue = "10") Integer count) {
+    public ResponseEntity<Collection<Review>> findAll(@RequestParam (required = false) Long filmId,
+                                                      @RequestParam(defaultValue = "10") Integer count,
+                                                      @RequestParam(required = false) String cursor) {
         log.info("Starting GET METHOD find all reviews");
 
+        if (cursor != null) {
+            log.debug("Starting find reviews page. filmId = {}, cursor = {}, count = {}", filmId, cursor, count);
+
+            if (filmId != null) {
+                PathVariableValidator.checkIds(filmId);
+            }
+
+            return page(reviewService.findPage(filmId, cursor, count), count);
+        }
+
+        return ResponseEntity.ok(findAll(filmId, count));
+    }
+
+    private Collection<Review> findAll(Long filmId, Integer count) {
         if (filmId != null) {
             log.debug("filmId = {}. Starting find reviews of this film. Count = {}", filmId, count);
 
@@ -62,6 +87,18 @@ public class ReviewController {
         return reviewService.findAll();
     }
 
+    // Курсор следующей страницы отдаётся в заголовке, тело ответа остаётся списком отзывов
+    private ResponseEntity<Collection<Review>> page(Collection<Review> reviews, int count) {
+        if (reviews.size() < count) {
+            return ResponseEntity.ok(reviews);
+        }
+
+        Review last = List.copyOf(reviews).getLast();
+        return ResponseEntity.ok()
+                .header(NEXT_CURSOR_HEADER, ReviewCursor.after(last).encode())
+                .body(reviews);
+    }
+
     @PutMapping("/{id}/like/{userId}")
     public Review putLike(@PathVariable Long id,
                           @PathVariable Long userId) {
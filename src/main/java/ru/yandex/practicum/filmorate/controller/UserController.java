@@ -2,16 +2,24 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import ru.yandex.practicum.filmorate.model.Event.Event;
-import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
+import static ru.yandex.practicum.filmorate.controller.FieldsProjection.parseFilmFields;
+import static ru.yandex.practicum.filmorate.controller.FieldsProjection.parseUserFields;
+import static ru.yandex.practicum.filmorate.controller.FieldsProjection.projectFilms;
+import static ru.yandex.practicum.filmorate.controller.FieldsProjection.projectUsers;
 import static ru.yandex.practicum.filmorate.controller.PathVariableValidator.checkIds;
 
 @RestController
@@ -39,18 +47,25 @@ public class UserController {
     }
 
     @GetMapping
-    public Collection<User> findAll() {
+    public MappingJacksonValue findAll(@RequestParam(required = false) String fields) {
         log.info("Running GET method: get all users");
 
-        return userService.findAll();
+        Set<UserField> userFields = parseUserFields(fields);
+        return projectUsers(userService.findAll(userFields), userFields);
     }
 
     @GetMapping("/{id}")
-    public User findById(@PathVariable("id") Long userId) {
+    public MappingJacksonValue findById(@PathVariable("id") Long userId,
+                                        @RequestParam(required = false) String fields,
+                                        WebRequest request) {
         log.info("Running GET method: find user by id");
 
         checkIds(userId);
-        return userService.findById(userId);
+        if (request.checkNotModified(userService.etag(userId, fields))) {
+            return null;
+        }
+        Set<UserField> userFields = parseUserFields(fields);
+        return projectUsers(userService.findById(userId, userFields), userFields);
     }
 
     @PutMapping("/{id}/friends/{friendId}")
@@ -62,11 +77,13 @@ public class UserController {
     }
 
     @GetMapping("/{id}/friends")
-    public Collection<User> findAllFriends(@PathVariable("id") Long userId) {
+    public MappingJacksonValue findAllFriends(@PathVariable("id") Long userId,
+                                              @RequestParam(required = false) String fields) {
         log.info("Running GET method: find all friends (id = {})", userId);
 
         checkIds(userId);
-        return userService.findAllFriends(userId);
+        Set<UserField> userFields = parseUserFields(fields);
+        return projectUsers(userService.findAllFriends(userId, userFields), userFields);
     }
 
     @DeleteMapping("/{id}/friends/{friendId}")
@@ -77,20 +94,38 @@ public class UserController {
         return userService.deleteFriend(id, friendId);
     }
 
+    @GetMapping("/{id}/friends/suggestions")
+    public MappingJacksonValue findFriendSuggestions(@PathVariable Long id,
+                                                     @RequestParam(defaultValue = "10") int count,
+                                                     @RequestParam(required = false) String fields) {
+        log.info("Running GET method: find friend suggestions (id = {})", id);
+
+        checkIds(id);
+        Set<UserField> userFields = parseUserFields(fields);
+        return projectUsers(userService.findFriendSuggestions(id, count, userFields), userFields);
+    }
+
     @GetMapping("/{id}/friends/common/{otherId}")
-    public Collection<User> findCommonFriends(@PathVariable Long id, @PathVariable Long otherId) {
+    public MappingJacksonValue findCommonFriends(@PathVariable Long id,
+                                                 @PathVariable Long otherId,
+                                                 @RequestParam(required = false) String fields) {
         log.info("Starting GET method: find CommonFriends");
 
         checkIds(id, otherId);
-        return userService.findCommonFriends(id, otherId);
+        Set<UserField> userFields = parseUserFields(fields);
+        return projectUsers(userService.findCommonFriends(id, otherId, userFields), userFields);
     }
 
     @GetMapping("/{id}/recommendations")
-    public List<Film> getRecommendations(@PathVariable Long id) {
+    @Bulkhead("recommendations")
+    public Callable<MappingJacksonValue> getRecommendations(@PathVariable Long id,
+                                                            @RequestParam(required = false) String fields) {
         log.info("Starting GET method: getRecommendations");
 
         checkIds(id);
-        return userService.getRecommendations(id);
+        // Выполняется асинхронно, чтобы отключение клиента отменяло запрос к базе
+        Set<FilmField> filmFields = parseFilmFields(fields);
+        return () -> projectFilms(userService.getRecommendations(id, filmFields), filmFields);
     }
 
 
@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.exception;
+
+import lombok.Getter;
+
+@Getter
+public class OverloadedException extends RuntimeException {
+    // true - лимит упал до минимума и сервис деградировал (503), false - просто превышен лимит (429)
+    private final boolean degraded;
+    private final long retryAfterSeconds;
+
+    public OverloadedException(String msg, boolean degraded, long retryAfterSeconds) {
+        super(msg);
+        this.degraded = degraded;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
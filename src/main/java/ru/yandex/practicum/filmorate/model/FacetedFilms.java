@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Страница популярных фильмов по набору фильтров и число подходящих фильмов по каждому значению фасета:
+ * genres, mpa, decades, directors.
+ */
+@Data
+@Builder
+public class FacetedFilms {
+    private final List<Film> films;
+    private final Map<String, Map<Long, Integer>> facets;
+}
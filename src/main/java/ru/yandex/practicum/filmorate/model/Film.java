@@ -1,7 +1,11 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -11,13 +15,25 @@ import java.util.*;
  */
 @Data
 @Builder
+@JsonFilter("fieldsFilter")
 public class Film {
     private Long id;
     private String name;
     private String description;
     private LocalDate releaseDate;
     private Long duration;
-    private final Set<Long> likes = new HashSet<>();
+    private long likesCount;
+    /**
+     * Значение films.likes_count без ещё не записанных в базу лайков. По нему строится cursor сортировки по лайкам.
+     */
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private long storedLikesCount;
+    /**
+     * Id пользователей, поставивших лайк. Заполняется только по явному запросу (expand=likes).
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Set<Long> likes;
     private final MPA mpa;
     private final Set<Genre> genres = new TreeSet<>(Comparator.comparing(Genre::getId));
     private final List<Director> directors = new ArrayList<>();
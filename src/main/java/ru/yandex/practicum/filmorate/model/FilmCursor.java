@@ -0,0 +1,52 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Позиция в списке фильмов, упорядоченном по (поле сортировки, id). Значение поля хранится в виде,
+ * пригодном для сравнения в запросе: строка, дата или число.
+ */
+@Getter
+@RequiredArgsConstructor
+public class FilmCursor {
+    private final Object value;
+    private final long filmId;
+
+    public static FilmCursor after(Film film, FilmSort sort) {
+        Object value = switch (sort) {
+            case NAME -> film.getName();
+            case RELEASE_DATE -> film.getReleaseDate();
+            case DURATION -> film.getDuration();
+            // Запрос сравнивает сохранённый f.likes_count, поэтому и cursor хранит его, а не показанное число
+            case LIKES -> film.getStoredLikesCount();
+        };
+        return new FilmCursor(value, film.getId());
+    }
+
+    public static FilmCursor decode(String cursor, FilmSort sort) {
+        try {
+            // Значение идёт последним: в названии фильма может встретиться двоеточие
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 2);
+            Object value = switch (sort) {
+                case NAME -> parts[1];
+                case RELEASE_DATE -> LocalDate.parse(parts[1]);
+                case DURATION, LIKES -> Long.parseLong(parts[1]);
+            };
+            return new FilmCursor(value, Long.parseLong(parts[0]));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException | DateTimeParseException e) {
+            throw new ValidationException("Некорректный cursor: " + cursor);
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((filmId + ":" + value).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,28 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Поля фильма, которые можно запросить через параметр fields.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum FilmField {
+    ID("id"),
+    NAME("name"),
+    DESCRIPTION("description"),
+    RELEASE_DATE("releaseDate"),
+    DURATION("duration"),
+    LIKES_COUNT("likesCount"),
+    MPA("mpa"),
+    GENRES("genres"),
+    DIRECTORS("directors");
+
+    public static final Set<FilmField> ALL = EnumSet.allOf(FilmField.class);
+
+    private final String jsonName;
+}
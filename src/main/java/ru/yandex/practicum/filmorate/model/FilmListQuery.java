@@ -0,0 +1,23 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.LocalDate;
+
+/**
+ * Параметры страницы списка фильмов: сортировка, диапазоны даты выхода и продолжительности,
+ * позиция предыдущей страницы и размер страницы.
+ */
+@Getter
+@Builder
+public class FilmListQuery {
+    private final FilmSort sort;
+    private final boolean descending;
+    private final LocalDate releasedFrom;
+    private final LocalDate releasedTo;
+    private final Long durationMin;
+    private final Long durationMax;
+    private final FilmCursor after;
+    private final int count;
+}
@@ -0,0 +1,31 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.util.Arrays;
+
+/**
+ * Поле сортировки списка фильмов. Для каждого поля есть составной индекс (поле, id),
+ * поэтому страница списка читается диапазоном индекса.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum FilmSort {
+    NAME("name", "f.name"),
+    RELEASE_DATE("releaseDate", "f.release_date"),
+    DURATION("duration", "f.duration"),
+    LIKES("likes", "f.likes_count");
+
+    private final String parameter;
+    private final String column;
+
+    public static FilmSort fromParameter(String parameter) {
+        return Arrays.stream(values())
+                .filter(sort -> sort.parameter.equalsIgnoreCase(parameter))
+                .findFirst()
+                .orElseThrow(() -> new ValidationException("Неизвестное поле сортировки: " + parameter +
+                        ", доступны: name, releaseDate, duration, likes"));
+    }
+}
@@ -0,0 +1,17 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Фильмы для совместного просмотра группой пользователей: понравившиеся всем участникам (common)
+ * и понравившиеся их друзьям, но ещё не отмеченные никем из группы (recommended).
+ */
+@Data
+@Builder
+public class GroupFilms {
+    private final List<Film> common;
+    private final List<Film> recommended;
+}
@@ -0,0 +1,37 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Позиция в списке отзывов, упорядоченном по (useful DESC, id). Передаётся клиенту в виде
+ * непрозрачной строки и возвращается им для получения следующей страницы.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ReviewCursor {
+    private final int useful;
+    private final long reviewId;
+
+    public static ReviewCursor after(Review review) {
+        return new ReviewCursor(review.getUseful(), review.getReviewId());
+    }
+
+    public static ReviewCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            return new ReviewCursor(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new ValidationException("Некорректный cursor: " + cursor);
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((useful + ":" + reviewId).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,35 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Окно подсчёта лайков для трендов. Окно разбито на корзины одинаковой длины, корзины старше окна
+ * обнуляются по мере сдвига времени.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum TrendingWindow {
+    HOUR("1h", Duration.ofMinutes(1).toMillis(), 60),
+    DAY("24h", Duration.ofMinutes(15).toMillis(), 96),
+    WEEK("7d", Duration.ofHours(1).toMillis(), 168);
+
+    private final String parameter;
+    private final long bucketMillis;
+    private final int buckets;
+
+    public long getMillis() {
+        return bucketMillis * buckets;
+    }
+
+    public static TrendingWindow fromParameter(String parameter) {
+        return Arrays.stream(values())
+                .filter(window -> window.parameter.equalsIgnoreCase(parameter))
+                .findFirst()
+                .orElseThrow(() -> new ValidationException("Неизвестное окно: " + parameter + ", доступны: 1h, 24h, 7d"));
+    }
+}
@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
 import lombok.Builder;
 import lombok.Data;
 
@@ -9,6 +10,7 @@ import java.util.Set;
 
 @Data
 @Builder
+@JsonFilter("fieldsFilter")
 public class User {
     private Long id;
     private String email;
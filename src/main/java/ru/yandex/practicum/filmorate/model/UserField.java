@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Поля пользователя, которые можно запросить через параметр fields.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum UserField {
+    ID("id"),
+    EMAIL("email"),
+    LOGIN("login"),
+    NAME("name"),
+    BIRTHDAY("birthday"),
+    FRIENDS("friends");
+
+    public static final Set<UserField> ALL = EnumSet.allOf(UserField.class);
+
+    private final String jsonName;
+}
@@ -15,6 +15,7 @@ import static ru.yandex.practicum.filmorate.storage.director.DirectorValidator.*
 public class DirectorService {
 
     private final DirectorStorage directorStorage;
+    private final EntityVersions entityVersions;
 
     public Director createDirector(Director director) {
         validateName(director);
@@ -25,13 +26,17 @@ public class DirectorService {
     public Director updateDirector(Director director) {
         validateDirector(director);
 
-        return directorStorage.update(director);
+        Director updated = directorStorage.update(director);
+        // Режиссёры входят в ответ по фильму
+        entityVersions.bumpAll(EntityVersions.Type.FILM);
+        return updated;
     }
 
     public void deleteDirector(long id) {
         if (!directorStorage.delete(id)) {
             throw new NotFoundException("Режиссёр с id = " + id + " не найден");
         }
+        entityVersions.bumpAll(EntityVersions.Type.FILM);
     }
 
     public Director getDirectorById(long id) {
@@ -0,0 +1,69 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.dal.AfterCommit;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счётчики версий фильмов, пользователей и отзывов для ETag. Версия сущности растёт при каждом её изменении,
+ * поколение типа - при изменениях, затрагивающих все сущности типа (удаление пользователя, изменение режиссёра).
+ * Счётчики живут в памяти, поэтому в ETag входит ещё и время запуска приложения.
+ */
+@Component
+public class EntityVersions {
+    public enum Type {
+        FILM, USER, REVIEW
+    }
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<Type, Map<Long, AtomicLong>> versions = new EnumMap<>(Type.class);
+    private final Map<Type, AtomicLong> generations = new EnumMap<>(Type.class);
+    // Общее число изменений сущностей типа, по нему кэши списков понимают, что данные устарели
+    private final Map<Type, AtomicLong> changes = new EnumMap<>(Type.class);
+
+    public EntityVersions() {
+        for (Type type : Type.values()) {
+            versions.put(type, new ConcurrentHashMap<>());
+            generations.put(type, new AtomicLong());
+            changes.put(type, new AtomicLong());
+        }
+    }
+
+    // Версия читается до загрузки сущности: если сущность изменится во время загрузки, ETag уже не совпадёт
+    public String etag(Type type, Long id, String... variant) {
+        AtomicLong version = versions.get(type).get(id);
+        return "\"" + type.name().charAt(0)
+                + id + "-" + epoch
+                + "." + generations.get(type).get()
+                + "." + (version == null ? 0 : version.get())
+                + "-" + Integer.toHexString(Arrays.hashCode(variant)) + "\"";
+    }
+
+    public long changes(Type type) {
+        return changes.get(type).get();
+    }
+
+    public void bump(Type type, Long id) {
+        Runnable action = () -> {
+            versions.get(type).computeIfAbsent(id, key -> new AtomicLong()).incrementAndGet();
+            changes.get(type).incrementAndGet();
+        };
+        action.run();
+        // Повторное увеличение после коммита отбрасывает ETag, выданные по данным, прочитанным до коммита
+        AfterCommit.repeat(action);
+    }
+
+    public void bumpAll(Type type) {
+        Runnable action = () -> {
+            generations.get(type).incrementAndGet();
+            changes.get(type).incrementAndGet();
+        };
+        action.run();
+        AfterCommit.repeat(action);
+    }
+}
@@ -2,6 +2,7 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.*;
@@ -9,15 +10,25 @@ import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Event.Event;
 import ru.yandex.practicum.filmorate.model.Event.EventOperation;
 import ru.yandex.practicum.filmorate.model.Event.EventType;
+import ru.yandex.practicum.filmorate.model.FacetedFilms;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmListQuery;
+import ru.yandex.practicum.filmorate.model.GroupFilms;
 import ru.yandex.practicum.filmorate.model.SearchType;
+import ru.yandex.practicum.filmorate.model.TrendingWindow;
 import ru.yandex.practicum.filmorate.service.util.ServiceUtils;
+import ru.yandex.practicum.filmorate.service.util.SingleFlight;
 import ru.yandex.practicum.filmorate.storage.dal.EventsRepository;
 import ru.yandex.practicum.filmorate.storage.dal.LikesRepository;
+import ru.yandex.practicum.filmorate.storage.dal.UserRecommendationJob;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
 import ru.yandex.practicum.filmorate.storage.director.FilmDirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmFacetIndex;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.film.FilmValidator;
+import ru.yandex.practicum.filmorate.storage.film.TrendingCounters;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.util.*;
@@ -26,40 +37,68 @@ import java.util.stream.Collectors;
 @Slf4j
 @Service
 public class FilmService {
+    private static final int MAX_GROUP_SIZE = 50;
+
     private final FilmStorage filmStorage;
     private final UserStorage userStorage;
     private final LikesRepository likesRepository;
     private final DirectorStorage directorStorage;
     private final FilmDirectorStorage filmDirectorStorage;
     private final EventsRepository eventsRepository;
+    private final EntityVersions entityVersions;
+    private final SingleFlight singleFlight;
+    private final FilmFacetIndex filmFacetIndex;
+    private final TrendingCounters trendingCounters;
+    private final UserRecommendationJob userRecommendationJob;
+    private final ReviewStorage reviewStorage;
+    private final boolean asyncPurge;
 
     public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
                        @Qualifier("userDbStorage") UserStorage userStorage,
-                       LikesRepository likesRepository, DirectorStorage directorStorage, FilmDirectorStorage filmDirectorStorage, EventsRepository eventsRepository) {
+                       LikesRepository likesRepository, DirectorStorage directorStorage, FilmDirectorStorage filmDirectorStorage, EventsRepository eventsRepository,
+                       EntityVersions entityVersions,
+                       SingleFlight singleFlight,
+                       FilmFacetIndex filmFacetIndex,
+                       TrendingCounters trendingCounters,
+                       UserRecommendationJob userRecommendationJob,
+                       @Qualifier("reviewsDbStorage") ReviewStorage reviewStorage,
+                       @Value("${filmorate.purge.async:false}") boolean asyncPurge) {
         this.filmStorage = filmStorage;
         this.userStorage = userStorage;
         this.likesRepository = likesRepository;
         this.directorStorage = directorStorage;
         this.filmDirectorStorage = filmDirectorStorage;
         this.eventsRepository = eventsRepository;
+        this.entityVersions = entityVersions;
+        this.singleFlight = singleFlight;
+        this.filmFacetIndex = filmFacetIndex;
+        this.trendingCounters = trendingCounters;
+        this.userRecommendationJob = userRecommendationJob;
+        this.reviewStorage = reviewStorage;
+        this.asyncPurge = asyncPurge;
     }
 
+    // Все проверки выполняются до записи, сама запись фильма с жанрами и режиссёрами - одна транзакция
+    @Transactional
     public Film create(Film film) {
         FilmValidator.validateFilm(film);
+        validateDirectorsExist(film);
 
         film = filmStorage.create(film);
-        validateDirectorsExist(film);
         filmDirectorStorage.addDirectorsToFilm(film.getId(), film.getDirectors());
+        entityVersions.bump(EntityVersions.Type.FILM, film.getId());
 
         return film;
     }
 
+    @Transactional
     public Film update(Film newFilm) {
         FilmValidator.validateFilm(newFilm);
+        validateDirectorsExist(newFilm);
 
         newFilm = filmStorage.update(newFilm);
-        validateDirectorsExist(newFilm);
         filmDirectorStorage.replaceDirectorsForFilm(newFilm.getId(), newFilm.getDirectors());
+        entityVersions.bump(EntityVersions.Type.FILM, newFilm.getId());
 
         return newFilm;
     }
@@ -68,17 +107,66 @@ public class FilmService {
         return filmStorage.findAll();
     }
 
+    public Collection<Film> findAll(Set<FilmField> fields) {
+        return filmStorage.findAll(fields);
+    }
+
+    public List<Film> findPage(FilmListQuery query, Set<FilmField> fields) {
+        if (query.getCount() <= 0) {
+            throw new ValidationException("count должен быть положительным");
+        }
+        if (query.getReleasedFrom() != null && query.getReleasedTo() != null
+                && query.getReleasedFrom().isAfter(query.getReleasedTo())) {
+            throw new ValidationException("releasedFrom не может быть позже releasedTo");
+        }
+        if (query.getDurationMin() != null && query.getDurationMax() != null
+                && query.getDurationMin() > query.getDurationMax()) {
+            throw new ValidationException("durationMin не может быть больше durationMax");
+        }
+
+        return filmStorage.findPage(query, fields);
+    }
+
     public Film findById(Long id) {
         return filmStorage.findById(id).orElseThrow(() -> new NotFoundException("Фильм с id = " + id + " не найден"));
     }
 
+    public Film findById(Long id, String expand, Set<FilmField> fields) {
+        Film film = filmStorage.findById(id, fields)
+                .orElseThrow(() -> new NotFoundException("Фильм с id = " + id + " не найден"));
+
+        if ("likes".equalsIgnoreCase(expand)) {
+            film.setLikes(new HashSet<>(likesRepository.findAllLikesByFilmId(id)));
+        } else if (expand != null) {
+            throw new ValidationException("Неизвестное значение expand: " + expand + ", доступно: likes");
+        }
+
+        return film;
+    }
+
+    public String etag(Long id, String expand, String fields) {
+        return entityVersions.etag(EntityVersions.Type.FILM, id, expand, fields);
+    }
+
+    public List<Long> findLikes(Long filmId, int from, int size) {
+        log.debug("Starting findLikes, filmId = {}, from = {}, size = {}", filmId, from, size);
+
+        if (from < 0 || size <= 0) {
+            throw new ValidationException("Параметр from не может быть отрицательным, а size должен быть положительным");
+        }
+        checkFilmInStorage(filmId);
+
+        return likesRepository.findLikesByFilmId(filmId, from, size);
+    }
+
+    @Transactional
     public Map<String, Long> likeFilm(Long filmId, Long userId) {
         log.debug("Starting likeFilm. film id = {}, userId = {}", filmId, userId);
 
         checkUserInStorage(userId);
+        checkFilmInStorage(filmId);
 
-        Set<Long> likes = findById(filmId).getLikes();
-        if (likes.contains(userId)) {
+        if (likesRepository.isLiked(filmId, userId)) {
             log.warn("User (id = {}) already likes film (id = {})", userId, filmId);
             Event event = ServiceUtils.createEvent(userId, EventType.LIKE, EventOperation.ADD, filmId);
             eventsRepository.createEvent(event);
@@ -87,10 +175,8 @@ public class FilmService {
                     "userId", userId);
         }
 
-        likes.add(userId);
-
-
         likesRepository.create(filmId, userId);
+        entityVersions.bump(EntityVersions.Type.FILM, filmId);
 
         Event event = ServiceUtils.createEvent(userId, EventType.LIKE, EventOperation.ADD, filmId);
         eventsRepository.createEvent(event);
@@ -101,22 +187,22 @@ public class FilmService {
                 "userId", userId);
     }
 
+    @Transactional
     public Map<String, Long> deleteLike(Long filmId, Long userId) {
         log.debug("Starting deleteLike, filmId = {}, userId = {}", filmId, userId);
 
         checkUserInStorage(userId);
+        checkFilmInStorage(filmId);
 
-        Set<Long> likes = findById(filmId).getLikes();
-        if (!likes.contains(userId)) {
+        if (!likesRepository.isLiked(filmId, userId)) {
             log.warn("Likes of film (id = {}) does not contains like from user (id = {})", filmId, userId);
             throw new ConditionsNotMetException("В списке лайков фильма с id = " + filmId
                     + " нет пользователя с id = " + userId);
         }
 
-        likes.remove(userId);
-        log.trace("User (id = {}) removed from likes of film (id = {})", userId, filmId);
-
         likesRepository.delete(filmId, userId);
+        entityVersions.bump(EntityVersions.Type.FILM, filmId);
+        log.trace("User (id = {}) removed from likes of film (id = {})", userId, filmId);
 
         Event event = ServiceUtils.createEvent(userId, EventType.LIKE, EventOperation.REMOVE, filmId);
         eventsRepository.createEvent(event);
@@ -130,25 +216,35 @@ public class FilmService {
         log.debug("Starting findMostPopularFilms");
 
         return findAll().stream()
-                .sorted((o1, o2) -> (o2.getLikes().size() - o1.getLikes().size()))
+                .sorted(Comparator.comparingLong(Film::getLikesCount).reversed())
                 .limit(count)
                 .collect(Collectors.toList());
     }
 
-    public List<Film> getRecommendationFilms(Long userId) {
-        return filmStorage.getRecommendationFilms(userId);
+    // Список читается одним запросом из user_recommendations, пересчитывает его только UserRecommendationJob;
+    // пользователю без списка отдаём популярные фильмы
+    public List<Film> getRecommendationFilms(Long userId, Set<FilmField> fields) {
+        return singleFlight.execute("recommendations", List.of(userId, fields), () -> {
+            List<Film> recommendations = filmStorage.getRecommendationFilms(userId, fields);
+            if (!recommendations.isEmpty()) {
+                return recommendations;
+            }
+            log.debug("No precomputed recommendations for userId={}, returning popular films", userId);
+            return filmStorage.findTopByIds(userRecommendationJob.popularFilmIds(), userRecommendationJob.size(),
+                    fields);
+        });
     }
 
-    public List<Film> getFilmsByDirector(long directorId, String sortBy) {
+    public List<Film> getFilmsByDirector(long directorId, String sortBy, Set<FilmField> fields) {
         if (directorStorage.findById(directorId).isEmpty()) {
             throw new NotFoundException("Режиссёр с id = " + directorId + " не найден");
         }
 
         switch (sortBy) {
             case "year":
-                return filmStorage.getFilmsByDirectorSortedByYear(directorId);
+                return filmStorage.getFilmsByDirectorSortedByYear(directorId, fields);
             case "likes":
-                return filmStorage.getFilmsByDirectorSortedByLikes(directorId);
+                return filmStorage.getFilmsByDirectorSortedByLikes(directorId, fields);
             default:
                 throw new ValidationException("sortBy должен быть 'year' или 'likes'");
         }
@@ -176,7 +272,12 @@ public class FilmService {
     }
 
     public List<Film> getMostPopularFilms(int count, Integer genreId, Integer year) {
-        List<Film> mostPopularFilms = filmStorage.getMostPopularFilms(count, genreId, year);
+        return getMostPopularFilms(count, genreId, year, FilmField.ALL);
+    }
+
+    public List<Film> getMostPopularFilms(int count, Integer genreId, Integer year, Set<FilmField> fields) {
+        List<Film> mostPopularFilms = singleFlight.execute("popular", Arrays.asList(count, genreId, year, fields),
+                () -> filmStorage.getMostPopularFilms(count, genreId, year, fields));
         if (mostPopularFilms.isEmpty()) {
             log.info("Popular films list is empty for parameters: count={}, genreId={}, year={}", count, genreId, year);
         } else {
@@ -186,27 +287,136 @@ public class FilmService {
         return mostPopularFilms;
     }
 
+    public List<Film> getSimilarFilms(Long filmId, int count, Set<FilmField> fields) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        checkFilmInStorage(filmId);
+
+        List<Film> similar = filmStorage.findSimilar(filmId, count, fields);
+        log.info("Similar films found: filmId={}, count={}, films={}", filmId, count, similar.size());
+        return similar;
+    }
+
+    public List<Film> getTrendingFilms(String window, int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        TrendingWindow trendingWindow = TrendingWindow.fromParameter(window);
+
+        List<Film> films = filmStorage.findByIds(trendingCounters.top(trendingWindow, count), FilmField.ALL);
+        log.info("Trending films found: window={}, count={}, films={}", window, count, films.size());
+        return films;
+    }
+
+    public FacetedFilms getPopularFilmsWithFacets(int count, List<Long> genreIds, String genreMatch,
+                                                  Long mpaId, Integer decade, Long directorId) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        if (!"any".equalsIgnoreCase(genreMatch) && !"all".equalsIgnoreCase(genreMatch)) {
+            throw new ValidationException("genreMatch должен быть 'any' или 'all'");
+        }
+        if (decade != null && decade % 10 != 0) {
+            throw new ValidationException("decade должен быть первым годом десятилетия, например 1990");
+        }
+
+        FilmFacetIndex.Filter filter = new FilmFacetIndex.Filter(genreIds, "all".equalsIgnoreCase(genreMatch),
+                mpaId, decade, directorId);
+        FilmFacetIndex.Result result = filmFacetIndex.search(filter, count,
+                entityVersions.changes(EntityVersions.Type.FILM));
+
+        // Фильм мог быть удалён после построения снимка индекса, такие findByIds пропускает
+        List<Film> films = filmStorage.findByIds(result.getFilmIds(), FilmField.ALL);
+        log.info("Popular films with facets found: count={}, genreIds={}, genreMatch={}, mpaId={}, decade={}, " +
+                "directorId={}, films={}", count, genreIds, genreMatch, mpaId, decade, directorId, films.size());
+
+        return FacetedFilms.builder()
+                .films(films)
+                .facets(result.getFacets())
+                .build();
+    }
+
     @Transactional
     public void deleteFilmById(Long filmId) {
         log.debug("Starting deleteFilmById, filmId = {}", filmId);
         Film film = findById(filmId);
 
+        // Отзывы и оценки удаляются двумя запросами в той же транзакции; в асинхронном режиме их удалит PurgeWorker
+        if (!asyncPurge) {
+            reviewStorage.deleteReviewByFilmConnection(filmId);
+        }
         if (!filmStorage.deleteById(film.getId())) {
             log.error("Failed to remove film with id = {}", filmId);
             throw new InternalServerException("Не удалось удалить фильм с id = " + filmId);
         }
+        entityVersions.bump(EntityVersions.Type.FILM, filmId);
+        // Отзывы фильма удаляются вместе с ним
+        entityVersions.bumpAll(EntityVersions.Type.REVIEW);
         log.info("Film with id = {} has been successfully deleted", filmId);
     }
 
-    public Collection<Film> getCommonFilms(Long userId, Long friendId) {
+    public Collection<Film> getCommonFilms(Long userId, Long friendId, Set<FilmField> fields) {
         checkUserInStorage(userId, friendId);
 
-        return likesRepository.findAllLikedByUserId(userId)
-                .stream()
-                .filter(likesRepository.findAllLikedByUserId(friendId)::contains)
-                .map(this::findById)
-                .sorted((film1, film2) -> film2.getLikes().size() - film1.getLikes().size())
-                .toList();
+        BitSet common = intersectLiked(likesRepository.findLikedFilmsByUserIds(List.of(userId, friendId)));
+        return filmStorage.findTopByIds(toIds(common), common.cardinality(), fields);
+    }
+
+    /**
+     * Общие любимые фильмы группы и рекомендации для неё. Лайки всех участников и их друзей читаются двумя
+     * запросами в битовые карты, пересечение и объединение считаются в памяти, а фильмы загружаются одним
+     * запросом на пачку, уже отсортированными по числу лайков.
+     */
+    public GroupFilms getGroupFilms(List<Long> userIds, int count, Set<FilmField> fields) {
+        if (userIds.isEmpty() || userIds.size() > MAX_GROUP_SIZE) {
+            throw new ValidationException("В группе должно быть от 1 до " + MAX_GROUP_SIZE + " пользователей");
+        }
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        Set<Long> group = new LinkedHashSet<>(userIds);
+        checkUserInStorage(group.toArray(Long[]::new));
+
+        Map<Long, BitSet> liked = likesRepository.findLikedFilmsByUserIds(group);
+        BitSet common = intersectLiked(liked);
+
+        BitSet recommended = likesRepository.findLikedFilmsOfFriends(group);
+        liked.values().forEach(recommended::andNot);
+
+        GroupFilms result = GroupFilms.builder()
+                .common(filmStorage.findTopByIds(toIds(common), common.cardinality(), fields))
+                .recommended(filmStorage.findTopByIds(toIds(recommended), count, fields))
+                .build();
+        log.info("Group films found: users={}, common={}, recommended={}",
+                group.size(), result.getCommon().size(), result.getRecommended().size());
+        return result;
+    }
+
+    private static BitSet intersectLiked(Map<Long, BitSet> liked) {
+        BitSet common = null;
+        for (BitSet films : liked.values()) {
+            if (common == null) {
+                common = (BitSet) films.clone();
+            } else {
+                common.and(films);
+            }
+            if (common.isEmpty()) {
+                break;
+            }
+        }
+        return common == null ? new BitSet() : common;
+    }
+
+    private static List<Long> toIds(BitSet films) {
+        return films.stream().mapToObj(Long::valueOf).toList();
+    }
+
+    private void checkFilmInStorage(Long filmId) {
+        if (!filmStorage.containsFilm(filmId)) {
+            log.warn("Not found film id = {}", filmId);
+            throw new NotFoundException("Фильм с id = " + filmId + " не найден");
+        }
     }
 
     private void checkUserInStorage(Long... userIds) {
@@ -219,6 +429,10 @@ public class FilmService {
     }
 
     public List<Film> searchFilms(String query, String by) {
+        return searchFilms(query, by, FilmField.ALL);
+    }
+
+    public List<Film> searchFilms(String query, String by, Set<FilmField> fields) {
         if (query == null || query.isBlank()) {
             throw new ValidationException("Пустой запрос! Проверьте корректность ввода подстроки");
         }
@@ -229,16 +443,20 @@ public class FilmService {
             throw new ValidationException("Необходимо указать хотя бы один тип поиска");
         }
 
+        return singleFlight.execute("search", List.of(query, searchBy, fields), () -> search(query, searchBy, fields));
+    }
+
+    private List<Film> search(String query, Set<SearchType> searchBy, Set<FilmField> fields) {
         if (searchBy.contains(SearchType.TITLE) && searchBy.contains(SearchType.DIRECTOR)) {
-            return filmStorage.findByTitleOrDirector(query);
+            return filmStorage.findByTitleOrDirector(query, fields);
         }
 
         if (searchBy.contains(SearchType.TITLE)) {
-            return filmStorage.findByTitle(query);
+            return filmStorage.findByTitle(query, fields);
         }
 
         if (searchBy.contains(SearchType.DIRECTOR)) {
-            return filmStorage.findByDirector(query);
+            return filmStorage.findByDirector(query, fields);
         }
 
         throw new InternalServerException("Неожиданное состояние поиска");
@@ -3,14 +3,18 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.*;
 import ru.yandex.practicum.filmorate.model.Event.Event;
 import ru.yandex.practicum.filmorate.model.Event.EventOperation;
 import ru.yandex.practicum.filmorate.model.Event.EventType;
 import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.model.ReviewCursor;
+import ru.yandex.practicum.filmorate.model.ReviewRating;
 import ru.yandex.practicum.filmorate.service.util.ServiceUtils;
 import ru.yandex.practicum.filmorate.storage.dal.EventsRepository;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.review.ReviewLeaderboard;
 import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
@@ -26,15 +30,21 @@ public class ReviewService {
     private final UserStorage userStorage;
     private final FilmStorage filmStorage;
     private final EventsRepository eventsRepository;
+    private final ReviewLeaderboard reviewLeaderboard;
+    private final EntityVersions entityVersions;
 
     public ReviewService(@Qualifier("reviewsDbStorage") ReviewStorage reviewsStorage,
                          @Qualifier("userDbStorage") UserStorage userStorage,
                          @Qualifier("filmDbStorage") FilmStorage filmStorage,
-                         EventsRepository eventsRepository) {
+                         EventsRepository eventsRepository,
+                         ReviewLeaderboard reviewLeaderboard,
+                         EntityVersions entityVersions) {
         this.reviewsStorage = reviewsStorage;
         this.userStorage = userStorage;
         this.filmStorage = filmStorage;
         this.eventsRepository = eventsRepository;
+        this.reviewLeaderboard = reviewLeaderboard;
+        this.entityVersions = entityVersions;
     }
 
     public Review create(Review review) {
@@ -44,6 +54,8 @@ public class ReviewService {
 
         checkUserAndFilmId(review.getUserId(), review.getFilmId());
         Review createdReview = reviewsStorage.create(review);
+        reviewLeaderboard.saved(createdReview);
+        entityVersions.bump(EntityVersions.Type.REVIEW, createdReview.getReviewId());
 
         Event event = ServiceUtils.createEvent(createdReview.getUserId(), EventType.REVIEW, EventOperation.ADD, createdReview.getReviewId());
         eventsRepository.createEvent(event);
@@ -67,8 +79,9 @@ public class ReviewService {
         newReview.setFilmId(oldReview.getFilmId());
         newReview.setUseful(oldReview.getUseful());
 
-        Review updatedReview = reviewsStorage.update(newReview);
-        Review result = findById(updatedReview.getReviewId());
+        Review result = reviewsStorage.update(newReview);
+        reviewLeaderboard.saved(result);
+        entityVersions.bump(EntityVersions.Type.REVIEW, result.getReviewId());
 
         Event event = ServiceUtils.createEvent(result.getUserId(), EventType.REVIEW, EventOperation.UPDATE, result.getReviewId());
         eventsRepository.createEvent(event);
@@ -88,6 +101,8 @@ public class ReviewService {
             log.error("Unexpected: review {} exists but was not deleted", id);
             throw new InternalServerException("Cannot delete review with id " + id);
         }
+        reviewLeaderboard.deleted(review);
+        entityVersions.bump(EntityVersions.Type.REVIEW, id);
 
         Event event = ServiceUtils.createEvent(review.getUserId(),
                 EventType.REVIEW,
@@ -106,6 +121,10 @@ public class ReviewService {
                 -> new NotFoundException("Отзывв с id = " + id + " не найден"));
     }
 
+    public String etag(Long id) {
+        return entityVersions.etag(EntityVersions.Type.REVIEW, id);
+    }
+
     public Collection<Review> findAll() {
         log.trace("Start findAll in reviewService");
 
@@ -117,61 +136,82 @@ public class ReviewService {
 
         checkFilmId(filmId);
 
-        return reviewsStorage.findAll(filmId, count);
+        return reviewLeaderboard.top(filmId, count, limit -> reviewsStorage.findAll(filmId, limit));
+    }
+
+    public Collection<Review> findPage(Long filmId, String cursor, int count) {
+        log.trace("Start findPage in reviewService. filmId = {}, cursor = {}, count = {}", filmId, cursor, count);
+
+        if (count <= 0) {
+            throw new ValidationException("count должен быть положительным");
+        }
+        if (filmId != null) {
+            checkFilmId(filmId);
+        }
+        ReviewCursor after = cursor == null || cursor.isBlank() ? null : ReviewCursor.decode(cursor);
+
+        return reviewsStorage.findPage(filmId, after, count);
     }
 
+    @Transactional
     public Review putLike(Long id, Long userId) {
         log.trace("Start putLike in reviewService");
 
         Review res = findById(id);
         checkUserId(userId);
+        ReviewRating rating = reviewsStorage.findUserRating(id, userId);
 
-        if (reviewsStorage.isUserLikeReview(id, userId)) {
+        if (rating == ReviewRating.LIKE) {
             log.warn("userId = {} already like reviewId = {}", userId, id);
 
             throw new DuplicatedDataException("Пользователь с id = " + userId
                     + " уже поставил лайк отзыву с id = " + id);
         }
 
-        if (reviewsStorage.isUserDislikeReview(id, userId)) {
+        int delta = +1;
+        if (rating == ReviewRating.DISLIKE) {
             log.debug("userId = {} dislike reviewId = {}. Deleting dislike", userId, id);
 
-            deleteDislike(id, userId);
-            res.setUseful(res.getUseful() + 1);
+            reviewsStorage.deleteDislike(id, userId);
+            delta += 1;
         }
 
-        updateUseful(res.getReviewId(), +1);
         reviewsStorage.putLike(id, userId);
+        updateUseful(res, delta);
 
         return res;
     }
 
+    @Transactional
     public Review putDislike(Long id, Long userId) {
         log.trace("Start putDislike in reviewService");
 
         Review res = findById(id);
         checkUserId(userId);
+        ReviewRating rating = reviewsStorage.findUserRating(id, userId);
 
-        if (reviewsStorage.isUserDislikeReview(id, userId)) {
+        if (rating == ReviewRating.DISLIKE) {
             log.warn("userId = {} already dislike reviewId = {}", userId, id);
 
             throw new DuplicatedDataException("Пользователь с id = " + userId
                     + " уже поставил дизлайк отзыву с id = " + id);
         }
 
-        if (reviewsStorage.isUserLikeReview(id, userId)) {
+        int delta = -1;
+        if (rating == ReviewRating.LIKE) {
             log.debug("userId = {} like reviewId = {}. Deleting like", userId, id);
 
-            deleteLike(id, userId);
-            res.setUseful(res.getUseful() - 1);
+            reviewsStorage.deleteLike(id, userId);
+            delta -= 1;
         }
 
-        updateUseful(res.getReviewId(), -1);
         reviewsStorage.putDislike(id, userId);
+        updateUseful(res, delta);
 
         return res;
     }
 
+    @Transactional
     public boolean deleteLike(Long id, Long userId) {
         log.trace("Start deleteLike in reviewService");
 
@@ -185,11 +225,13 @@ public class ReviewService {
                     + " не ставил лайк отзыву с id = " + id);
         }
 
-        updateUseful(res.getReviewId(), -1);
+        boolean deleted = reviewsStorage.deleteLike(id, userId);
+        updateUseful(res, -1);
 
-        return reviewsStorage.deleteLike(id, userId);
+        return deleted;
     }
 
+    @Transactional
     public boolean deleteDislike(Long id, Long userId) {
         log.trace("Start deleteDislike in reviewService");
 
@@ -203,15 +245,17 @@ public class ReviewService {
                     + " не ставил дизлайк отзыву с id = " + id);
         }
 
-        updateUseful(res.getReviewId(), +1);
+        boolean deleted = reviewsStorage.deleteDislike(id, userId);
+        updateUseful(res, +1);
 
-        return reviewsStorage.deleteDislike(id, userId);
+        return deleted;
     }
 
-    private void updateUseful(long reviewId, int delta) {
-        Review review = findById(reviewId);
-        review.setUseful(review.getUseful() + delta);
-        reviewsStorage.update(review);
+    // Полезность меняется одним UPDATE, который сразу возвращает сохранённое значение
+    private void updateUseful(Review review, int delta) {
+        review.setUseful(reviewsStorage.updateUseful(review.getReviewId(), delta));
+        reviewLeaderboard.saved(review);
+        entityVersions.bump(EntityVersions.Type.REVIEW, review.getReviewId());
     }
 
     private void checkUserAndFilmId(Long userId, Long filmId) {
@@ -2,6 +2,7 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.*;
@@ -9,10 +10,14 @@ import ru.yandex.practicum.filmorate.model.Event.Event;
 import ru.yandex.practicum.filmorate.model.Event.EventOperation;
 import ru.yandex.practicum.filmorate.model.Event.EventType;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
 import ru.yandex.practicum.filmorate.service.util.ServiceUtils;
 import ru.yandex.practicum.filmorate.storage.dal.EventsRepository;
 import ru.yandex.practicum.filmorate.storage.dal.FriendsRepository;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserValidator;
 
@@ -20,7 +25,6 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import static java.util.Map.of;
 
@@ -31,49 +35,79 @@ public class UserService {
     private final FriendsRepository friendsRepository;
     private final FilmService filmService;
     private final EventsRepository eventsRepository;
+    private final EntityVersions entityVersions;
+    private final FriendGraph friendGraph;
+    private final ReviewStorage reviewStorage;
+    private final boolean asyncPurge;
 
 
     public UserService(
             @Qualifier("userDbStorage") UserStorage userStorage,
             FriendsRepository friendsRepository,
             FilmService filmService,
-            EventsRepository eventsRepository) {
+            EventsRepository eventsRepository,
+            EntityVersions entityVersions,
+            FriendGraph friendGraph,
+            @Qualifier("reviewsDbStorage") ReviewStorage reviewStorage,
+            @Value("${filmorate.purge.async:false}") boolean asyncPurge) {
         this.userStorage = userStorage;
         this.friendsRepository = friendsRepository;
         this.filmService = filmService;
         this.eventsRepository = eventsRepository;
+        this.entityVersions = entityVersions;
+        this.friendGraph = friendGraph;
+        this.reviewStorage = reviewStorage;
+        this.asyncPurge = asyncPurge;
     }
 
     public User create(User user) {
         UserValidator.validateUser(user);
-        return userStorage.create(user);
+        User created = userStorage.create(user);
+        entityVersions.bump(EntityVersions.Type.USER, created.getId());
+        return created;
     }
 
     public User update(User newUser) {
         UserValidator.validateUser(newUser);
-        return userStorage.update(newUser);
+        User updated = userStorage.update(newUser);
+        entityVersions.bump(EntityVersions.Type.USER, updated.getId());
+        return updated;
     }
 
     public Collection<User> findAll() {
         return userStorage.findAll();
     }
 
+    public Collection<User> findAll(Set<UserField> fields) {
+        return userStorage.findAll(fields);
+    }
+
     public User findById(Long id) {
-        return userStorage.findById(id).orElseThrow(
+        return findById(id, UserField.ALL);
+    }
+
+    public User findById(Long id, Set<UserField> fields) {
+        return userStorage.findById(id, fields).orElseThrow(
                 () -> new NotFoundException("Пользователь с id = " + id + " не найден"));
     }
 
+    public String etag(Long id, String fields) {
+        return entityVersions.etag(EntityVersions.Type.USER, id, fields);
+    }
+
+    @Transactional
     public Map<String, Long> addFriend(Long firstId, Long secondId) {
         log.debug("Starting addFriend, firstId = {}, secondId = {}", firstId, secondId);
 
         User user = findById(firstId);
-        User friend = findById(secondId);
+        checkUserInStorage(secondId);
 
-        addUserToFriendList(user.getId(), friend.getId());
+        addUserToFriendList(user, secondId);
 
 
-        friendsRepository.create(user.getId(), friend.getId());
-        log.info("User with id: {} has been added to friends of user with id: {}", friend.getId(), user.getId());
+        friendsRepository.create(user.getId(), secondId);
+        entityVersions.bump(EntityVersions.Type.USER, user.getId());
+        log.info("User with id: {} has been added to friends of user with id: {}", secondId, user.getId());
 
         Event event = ServiceUtils.createEvent(firstId, EventType.FRIEND, EventOperation.ADD, secondId);
         eventsRepository.createEvent(event);
@@ -82,17 +116,19 @@ public class UserService {
         return of("firstId", firstId, "secondId", secondId);
     }
 
+    @Transactional
     public Map<String, Long> deleteFriend(Long firstId, Long secondId) {
         log.debug("Starting deleteFriend, firstId = {}, secondId = {}", firstId, secondId);
 
         User user = findById(firstId);
-        User friendToRemove = findById(secondId);
+        checkUserInStorage(secondId);
 
-        deleteFromFriendList(user.getId(), friendToRemove.getId());
+        deleteFromFriendList(user, secondId);
 
-        friendsRepository.delete(user.getId(), friendToRemove.getId());
+        friendsRepository.delete(user.getId(), secondId);
+        entityVersions.bump(EntityVersions.Type.USER, user.getId());
         log.info("User with id: {} has been removed from friends of user with id: {}",
-        friendToRemove.getId(), user.getId());
+        secondId, user.getId());
 
         Event event = ServiceUtils.createEvent(firstId, EventType.FRIEND, EventOperation.REMOVE, secondId);
         eventsRepository.createEvent(event);
@@ -102,32 +138,54 @@ public class UserService {
     }
 
     public Collection<User> findAllFriends(Long id) {
+        return findAllFriends(id, UserField.ALL);
+    }
+
+    public Collection<User> findAllFriends(Long id, Set<UserField> fields) {
         log.debug("Starting findAllFriends, id = {}", id);
-        return findById(id).getFriends().stream()
-                .map(this::findById)
-                .collect(Collectors.toList());
+        checkUserInStorage(id);
+        return userStorage.findFriends(id, fields);
     }
 
     public Collection<User> findCommonFriends(Long firstId, Long secondId) {
+        return findCommonFriends(firstId, secondId, UserField.ALL);
+    }
+
+    public Collection<User> findCommonFriends(Long firstId, Long secondId, Set<UserField> fields) {
         log.debug("Starting findCommonFriends, firstId = {}, secondId = {}", firstId, secondId);
-        Set<Long> firstFriends = findById(firstId).getFriends();
-        Set<Long> secondFriends = findById(secondId).getFriends();
+        checkUserInStorage(firstId);
+        checkUserInStorage(secondId);
+
+        return userStorage.findCommonFriends(firstId, secondId, fields);
+    }
 
-        return firstFriends.stream()
-                .filter(secondFriends::contains)
-                .map(this::findById)
-                .collect(Collectors.toList());
+    public Collection<User> findFriendSuggestions(Long id, int count, Set<UserField> fields) {
+        log.debug("Starting findFriendSuggestions, id = {}, count = {}", id, count);
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        checkUserInStorage(id);
+
+        return userStorage.findByIds(friendGraph.suggestions(id, count), fields);
     }
 
     public boolean isFriends(Long firstId, Long secId) {
-        Set<Long> firstQueries = findById(firstId).getFriends();
-        Set<Long> secQueries = findById(secId).getFriends();
-        return firstQueries.contains(secId) && secQueries.contains(firstId);
+        checkUserInStorage(firstId);
+        checkUserInStorage(secId);
+        return userStorage.isFriends(firstId, secId);
     }
 
-    private void addUserToFriendList(Long userId, Long addedUserId) {
+    private void checkUserInStorage(Long userId) {
+        if (!userStorage.containsUser(userId)) {
+            log.warn("Not found user id = {}", userId);
+            throw new NotFoundException("Пользователь с id = " + userId + " не найден");
+        }
+    }
+
+    private void addUserToFriendList(User user, Long addedUserId) {
+        Long userId = user.getId();
         log.debug("Starting addUserToFriendList userId = {}, addedUserId = {}", userId, addedUserId);
-        Set<Long> friends = findById(userId).getFriends();
+        Set<Long> friends = user.getFriends();
 
         if (friends.contains(addedUserId)) {
             log.warn("User with id = {} is already friend of User with id = {}", addedUserId, userId);
@@ -137,9 +195,10 @@ public class UserService {
         log.info("User with id = {} added to friend list of User with id = {}", addedUserId, userId);
     }
 
-    private void deleteFromFriendList(Long userId, Long deletedUserId) {
+    private void deleteFromFriendList(User user, Long deletedUserId) {
+        Long userId = user.getId();
         log.debug("Starting deleteFromFriendList, userId = {}, deletedUserId = {}", userId, deletedUserId);
-        Set<Long> friends = findById(userId).getFriends();
+        Set<Long> friends = user.getFriends();
 
         if (friends.isEmpty()) {
             log.warn("List friends of User with id = {} is null or empty", userId);
@@ -155,14 +214,12 @@ public class UserService {
         }
     }
 
-    public List<Film> getRecommendations(Long userId) {
+    public List<Film> getRecommendations(Long userId, Set<FilmField> fields) {
         log.debug("Starting getRecommendations for user ID: {}", userId);
 
+        checkUserInStorage(userId);
 
-        // Проверяем существование пользователя
-        User user = findById(userId);
-
-        List<Film> recommendations = filmService.getRecommendationFilms(userId);
+        List<Film> recommendations = filmService.getRecommendationFilms(userId, fields);
 
         log.info("Retrieved {} recommended films for user ID: {}", recommendations.size(), userId);
         return recommendations;
@@ -185,10 +242,18 @@ public class UserService {
         log.debug("Starting deleteUserById, userId = {}", userId);
         User user = findById(userId);
 
+        // Отзывы и оценки удаляются двумя запросами в той же транзакции; в асинхронном режиме их удалит PurgeWorker
+        if (!asyncPurge) {
+            reviewStorage.deleteReviewByUserConnection(userId);
+        }
         if (!userStorage.deleteById(user.getId())) {
             log.error("Failed to remove user with id = {}", userId);
             throw new InternalServerException("Не удалось удалить пользователя с id = " + userId);
         }
+        // Вместе с пользователем удаляются его дружбы, лайки и отзывы
+        entityVersions.bumpAll(EntityVersions.Type.USER);
+        entityVersions.bumpAll(EntityVersions.Type.FILM);
+        entityVersions.bumpAll(EntityVersions.Type.REVIEW);
 
         log.info("User with id = {} has been successfully deleted", userId);
     }
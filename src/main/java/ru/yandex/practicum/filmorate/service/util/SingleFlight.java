@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.service.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.yandex.practicum.filmorate.storage.dal.QueryCancelledException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одинаковых одновременных вызовов: пока вычисление по ключу идёт, остальные вызовы
+ * с тем же ключом ждут его и получают тот же результат (или то же исключение). Число вызовов
+ * пишется в метрику filmorate.singleflight.calls с тегами name и result=leader|coalesced.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SingleFlight {
+    private final Map<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String name, List<Object> key, Supplier<T> supplier) {
+        // Внутри пишущей транзакции результат может содержать незакоммиченные данные, делиться им нельзя
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return supplier.get();
+        }
+
+        List<Object> flightKey = List.of(name, key);
+        CompletableFuture<Object> own = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(flightKey, own);
+
+        if (running != null) {
+            counter(name, "coalesced").increment();
+            log.trace("Call {} {} joined the running one", name, key);
+            try {
+                return (T) join(running);
+            } catch (RuntimeException e) {
+                // Запрос ведущего отменён из-за отключения его клиента, ожидающие вычисляют заново
+                if (isCancelled(e)) {
+                    return execute(name, key, supplier);
+                }
+                throw e;
+            }
+        }
+
+        counter(name, "leader").increment();
+        try {
+            T result = supplier.get();
+            own.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flightKey, own);
+        }
+    }
+
+    private Object join(CompletableFuture<Object> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isCancelled(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof QueryCancelledException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Counter counter(String name, String result) {
+        return Counter.builder("filmorate.singleflight.calls")
+                .tag("name", name)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Изменения состояния в памяти (кэши, счётчики, очереди пересчёта), привязанные к текущей транзакции:
+ * другие потоки видят их только после коммита. Без транзакции изменение применяется сразу.
+ */
+public final class AfterCommit {
+    private AfterCommit() {
+    }
+
+    public static void run(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        register(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // Действие уже выполнено сразу, в транзакции оно повторяется после коммита
+    public static void repeat(Runnable action) {
+        register(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // То же после коммита или отката: убирает то, что сама транзакция успела положить в кэш
+    public static void repeatOnCompletion(Runnable action) {
+        register(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                action.run();
+            }
+        });
+    }
+
+    // Изменение уже применено сразу, при откате транзакции оно отменяется
+    public static void undoOnRollback(Runnable undo) {
+        register(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    undo.run();
+                }
+            }
+        });
+    }
+
+    private static void register(TransactionSynchronization synchronization) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(synchronization);
+        }
+    }
+}
@@ -9,24 +9,35 @@ import ru.yandex.practicum.filmorate.exception.InternalServerException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 
 import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 @RequiredArgsConstructor
 public class BaseDbStorage<T> {
+    // Максимальное число параметров в одном IN (...), большие списки id разбиваются на части
+    protected static final int IN_CHUNK_SIZE = 1000;
+
     protected final JdbcTemplate jdbc;
     protected final RowMapper<T> mapper;
 
     protected long insert(String query, Object... params) {
+        return insertReturning("id", query, params);
+    }
+
+    // Запрашивается только ключевой столбец: вычисляемые столбцы (films.release_year) тоже считаются сгенерированными
+    protected long insertReturning(String keyColumn, String query, Object... params) {
         GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
 
-        jdbc.update(con -> {
-            PreparedStatement ps = con.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS);
+        QueryContext.run(QueryClass.POINT, () -> jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(query, new String[]{keyColumn});
             for (int idx = 0; idx < params.length; idx++) {
                 ps.setObject(idx + 1, params[idx]);
             }
             return ps;
-        }, keyHolder);
+        }, keyHolder));
 
         Long id = keyHolder.getKeyAs(Long.class);
 
@@ -38,7 +49,7 @@ public class BaseDbStorage<T> {
     }
 
     protected void update(String query, Object... params) {
-        int rowsUpdated = jdbc.update(query, params);
+        int rowsUpdated = QueryContext.run(QueryClass.POINT, () -> jdbc.update(query, params));
         if (rowsUpdated == 0) {
             throw new NotFoundException("Не удалось обновить данные");
         }
@@ -50,7 +61,7 @@ public class BaseDbStorage<T> {
 
     protected Optional<T> findOne(String query, Object... params) {
         try {
-            T result = jdbc.queryForObject(query, mapper, params);
+            T result = QueryContext.run(QueryClass.POINT, () -> jdbc.queryForObject(query, mapper, params));
             return Optional.ofNullable(result);
         } catch (EmptyResultDataAccessException ignore) {
             return Optional.empty();
@@ -58,16 +69,38 @@ public class BaseDbStorage<T> {
     }
 
     protected boolean delete(String query, Object... params) {
-        int rowsDeleted = jdbc.update(query, params);
+        int rowsDeleted = QueryContext.run(QueryClass.POINT, () -> jdbc.update(query, params));
         return rowsDeleted > 0;
     }
 
     protected Integer findCount(String query, Object... params) {
-        Integer res = jdbc.queryForObject(query, Integer.class, params);
+        Integer res = QueryContext.run(QueryClass.POINT, () -> jdbc.queryForObject(query, Integer.class, params));
         if (res == null) {
             throw new InternalServerException("Ошибка при выполнении " + query);
         }
 
         return res;
     }
+
+    // Тяжёлые запросы получают тайм-аут аналитического класса, включая догрузку связанных данных
+    protected <R> R analytic(Supplier<R> query) {
+        return QueryContext.run(QueryClass.ANALYTIC, query);
+    }
+
+    protected static String inPlaceholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Заменяет посчитанный заранее список владельца: сначала MERGE новых строк, затем удаление выпавших,
+     * поэтому читатель не увидит пустой список. Запрос удаления - "... WHERE владелец = ? AND id NOT IN (%s)".
+     */
+    protected static void replaceRows(JdbcTemplate jdbc, String mergeQuery, List<Object[]> rows,
+                                      String deleteStaleQuery, Long ownerId, List<Long> keptIds) {
+        jdbc.batchUpdate(mergeQuery, rows);
+        List<Object> params = new ArrayList<>();
+        params.add(ownerId);
+        params.addAll(keptIds);
+        jdbc.update(String.format(deleteStaleQuery, inPlaceholders(keptIds.size())), params.toArray());
+    }
 }
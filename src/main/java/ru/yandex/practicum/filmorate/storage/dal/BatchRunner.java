@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Пул фоновых пересчётов FilmSimilarityJob и UserRecommendationJob: идентификаторы делятся на пачки,
+ * пачки считаются параллельно, каждый пересчёт получает тайм-аут аналитического запроса.
+ */
+@Slf4j
+class BatchRunner {
+    private final String name;
+    private final int batchSize;
+    private final ExecutorService executor;
+
+    BatchRunner(String name, int batchSize, int parallelism) {
+        this.name = name;
+        this.batchSize = batchSize;
+        this.executor = Executors.newFixedThreadPool(parallelism);
+    }
+
+    /**
+     * Возвращает false, если пересчёт прерван или упал: вызывающий возвращает идентификаторы
+     * в очередь, и они попадут в следующий запуск.
+     */
+    boolean run(List<Long> ids, Consumer<Long> recompute) {
+        List<Future<?>> batches = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<Long> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+            batches.add(executor.submit(() -> batch.forEach(id -> QueryContext.run(QueryClass.ANALYTIC, () -> {
+                recompute.accept(id);
+                return null;
+            }))));
+        }
+        try {
+            for (Future<?> batch : batches) {
+                batch.get();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            log.warn("{} refresh failed", name, e.getCause());
+            return false;
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
 
 import java.util.List;
 import java.util.Optional;
@@ -19,8 +20,11 @@ public class DirectorDbStorage extends BaseDbStorage<Director> implements Direct
     private static final String SELECT_BY_ID = "SELECT id, name FROM directors WHERE id = ?";
     private static final String SELECT_ALL = "SELECT id, name FROM directors ORDER BY id";
 
-    public DirectorDbStorage(JdbcTemplate jdbc, RowMapper<Director> mapper) {
+    private final FilmCache filmCache;
+
+    public DirectorDbStorage(JdbcTemplate jdbc, RowMapper<Director> mapper, FilmCache filmCache) {
         super(jdbc, mapper);
+        this.filmCache = filmCache;
     }
 
     @Override
@@ -33,12 +37,18 @@ public class DirectorDbStorage extends BaseDbStorage<Director> implements Direct
     @Override
     public Director update(Director director) {
         update(UPDATE_DIRECTOR, director.getName(), director.getId());
+        // Имя режиссёра хранится в кэшированных фильмах
+        filmCache.invalidateAll();
         return director;
     }
 
     @Override
     public boolean delete(long id) {
-        return delete(DELETE_DIRECTOR, id);
+        boolean deleted = delete(DELETE_DIRECTOR, id);
+        if (deleted) {
+            filmCache.invalidateAll();
+        }
+        return deleted;
     }
 
     @Override
@@ -24,7 +24,7 @@ public class EventsRepository extends BaseDbStorage<Event> {
     }
 
     public void createEvent(Event event) {
-        Long eventId = insert(INSERT_QUERY,
+        Long eventId = insertReturning("event_id", INSERT_QUERY,
                 System.currentTimeMillis(),
                 event.getUserId(),
                 event.getEventType().name(),
@@ -1,27 +1,49 @@
 package ru.yandex.practicum.filmorate.storage.dal;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
-import ru.yandex.practicum.filmorate.exception.DatabaseException;
+import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmListQuery;
+import ru.yandex.practicum.filmorate.model.FilmSort;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.MPA;
 import ru.yandex.practicum.filmorate.storage.dal.mapper.FilmRowMapper;
+import ru.yandex.practicum.filmorate.storage.director.FilmDirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeCounters;
+import ru.yandex.practicum.filmorate.storage.film.TrendingCounters;
+import ru.yandex.practicum.filmorate.storage.review.ReviewLeaderboard;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Optional;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Repository("filmDbStorage")
 public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
-    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final MPAsRepository mpasRepository;
+    private final GenresRepository genresRepository;
+    private final FilmDirectorStorage filmDirectorStorage;
+    private final FilmCache filmCache;
+    private final ReviewLeaderboard reviewLeaderboard;
+    private final TrendingCounters trendingCounters;
+    private final LikeCounters likeCounters;
+    private final boolean asyncPurge;
+    private final IdBitmap filmIds = new IdBitmap("films");
 
     private static final String INSERT_QUERY = "INSERT INTO films (name, description, release_date, duration, MPA_id)" +
             "VALUES (?, ?, ?, ?, ?)";
@@ -32,8 +54,8 @@ public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
             "duration = ?, " +
             "MPA_id = ? " +
             "WHERE id = ?";
-    private static final String FIND_ALL_QUERY = "SELECT * FROM films";
-    private static final String FIND_BY_ID_QUERY = "SELECT * FROM films WHERE id = ?";
+    private static final String FIND_ALL_QUERY = "SELECT f.* FROM films f WHERE f.deleted = FALSE";
+    private static final String FIND_BY_ID_QUERY = FIND_ALL_QUERY + " AND f.id = ?";
     private static final String INSERT_FILM_GENRE_QUERY = "INSERT INTO film_genres (film_id, genre_id) " +
             "VALUES (?, ?)";
     private static final String DELETE_FILM_GENRE_QUERY = "DELETE FROM film_genres WHERE film_id = ?";
@@ -41,57 +63,79 @@ public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
             SELECT f.*
             FROM films f
             JOIN film_directors fd ON f.id = fd.film_id
-            WHERE fd.director_id = ?
+            WHERE fd.director_id = ? AND f.deleted = FALSE
             ORDER BY f.release_date
             """;
     private static final String FIND_FILMS_BY_DIRECTOR_BY_LIKES = """
-            SELECT f.*, COUNT(l.user_id) AS likes_count
+            SELECT f.*
             FROM films f
             JOIN film_directors fd ON f.id = fd.film_id
-            LEFT JOIN likes l ON f.id = l.film_id
-            WHERE fd.director_id = ?
-            GROUP BY f.id
-            ORDER BY likes_count DESC;
+            WHERE fd.director_id = ? AND f.deleted = FALSE
+            ORDER BY f.likes_count DESC;
             """;
+    private static final String FIND_SIMILAR_QUERY = "SELECT f.* FROM film_similarity s " +
+            "JOIN films f ON f.id = s.similar_film_id AND f.deleted = FALSE " +
+            "WHERE s.film_id = ? ORDER BY s.score DESC, s.similar_film_id LIMIT ?";
+    private static final String FIND_BY_IDS_QUERY = FIND_ALL_QUERY + " AND f.id IN (%s)";
+    private static final String FIND_TOP_BY_IDS_QUERY = FIND_ALL_QUERY + " AND f.id IN (%s) " +
+            "ORDER BY f.likes_count DESC, f.id LIMIT ?";
+    private static final String FIND_RECOMMENDATIONS_QUERY = "SELECT f.* FROM user_recommendations r " +
+            "JOIN films f ON f.id = r.film_id AND f.deleted = FALSE " +
+            "WHERE r.user_id = ? ORDER BY r.sort_order";
+    private static final String CONTAINS_QUERY = "SELECT COUNT(*) FROM films WHERE id = ? AND deleted = FALSE";
     private static final String DELETE_BY_ID_QUERY = "DELETE FROM films WHERE id = ?";
+    private static final String MARK_DELETED_QUERY = "UPDATE films SET deleted = TRUE WHERE id = ? AND deleted = FALSE";
 
     private static final String FIND_BY_TITLE = """
-            SELECT f.*, COUNT(l.user_id) AS likes_count
+            SELECT f.*
             FROM films f
-            LEFT JOIN likes l ON f.id = l.film_id
-            WHERE LOWER(f.name) LIKE LOWER(?)
-            GROUP BY f.id
-            ORDER BY likes_count DESC
+            WHERE LOWER(f.name) LIKE LOWER(?) AND f.deleted = FALSE
+            ORDER BY f.likes_count DESC
             """;
 
     private static final String FIND_BY_DIRECTOR = """
-            SELECT f.*, COUNT(l.user_id) AS likes_count
+            SELECT DISTINCT f.*
             FROM films f
             JOIN film_directors fd ON f.id = fd.film_id
             JOIN directors d ON fd.director_id = d.id
-            LEFT JOIN likes l ON f.id = l.film_id
-            WHERE LOWER(d.name) LIKE LOWER(?)
-            GROUP BY f.id
-            ORDER BY likes_count DESC
+            WHERE LOWER(d.name) LIKE LOWER(?) AND f.deleted = FALSE
+            ORDER BY f.likes_count DESC
             """;
 
     private static final String FIND_BY_TITLE_OR_DIRECTOR = """
-            SELECT f.*, COUNT(l.user_id) AS likes_count
+            SELECT DISTINCT f.*
             FROM films f
             LEFT JOIN film_directors fd ON f.id = fd.film_id
             LEFT JOIN directors d ON fd.director_id = d.id
-            LEFT JOIN likes l ON f.id = l.film_id
-            WHERE LOWER(f.name) LIKE LOWER(?) OR LOWER(d.name) LIKE LOWER(?)
-            GROUP BY f.id
-            ORDER BY likes_count DESC
+            WHERE (LOWER(f.name) LIKE LOWER(?) OR LOWER(d.name) LIKE LOWER(?)) AND f.deleted = FALSE
+            ORDER BY f.likes_count DESC
             """;
 
 
     public FilmDbStorage(JdbcTemplate jdbcTemplate,
                          FilmRowMapper filmRowMapper,
-                         NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
+                         MPAsRepository mpasRepository,
+                         GenresRepository genresRepository,
+                         FilmDirectorStorage filmDirectorStorage,
+                         FilmCache filmCache,
+                         ReviewLeaderboard reviewLeaderboard,
+                         TrendingCounters trendingCounters,
+                         LikeCounters likeCounters,
+                         @Value("${filmorate.purge.async:false}") boolean asyncPurge) {
         super(jdbcTemplate, filmRowMapper);
-        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.mpasRepository = mpasRepository;
+        this.genresRepository = genresRepository;
+        this.filmDirectorStorage = filmDirectorStorage;
+        this.filmCache = filmCache;
+        this.reviewLeaderboard = reviewLeaderboard;
+        this.trendingCounters = trendingCounters;
+        this.likeCounters = likeCounters;
+        this.asyncPurge = asyncPurge;
+    }
+
+    @PostConstruct
+    public void loadIds() {
+        filmIds.load(jdbc);
     }
 
     @Override
@@ -105,7 +149,8 @@ public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
         );
 
         film.setId(id);
-        updGenres(film);
+        filmIds.add(id);
+        insertGenres(film);
         return film;
     }
 
@@ -119,211 +164,317 @@ public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
                 newFilm.getMpa().getId(),
                 newFilm.getId());
         updGenres(newFilm);
+        filmCache.invalidate(newFilm.getId());
         return newFilm;
     }
 
     @Override
     public Collection<Film> findAll() {
-        return findMany(FIND_ALL_QUERY);
+        return findAll(FilmField.ALL);
+    }
+
+    @Override
+    public Collection<Film> findAll(Set<FilmField> fields) {
+        return hydrate(findMany(FIND_ALL_QUERY), fields);
+    }
+
+    @Override
+    public List<Film> findPage(FilmListQuery query, Set<FilmField> fields) {
+        // Условие на позицию записано через >= по полю сортировки, чтобы чтение шло диапазоном индекса (поле, id)
+        String column = query.getSort().getColumn();
+        String direction = query.isDescending() ? " DESC" : "";
+        String compare = query.isDescending() ? " < ?" : " > ?";
+        if (query.getSort() == FilmSort.LIKES) {
+            // Порядок строится по сохранённому likes_count: записываем накопленные лайки, чтобы показанные
+            // числа совпадали с порядком страницы
+            likeCounters.flush();
+        }
+
+        StringBuilder sql = new StringBuilder(FIND_ALL_QUERY);
+        List<Object> params = new ArrayList<>();
+
+        if (query.getReleasedFrom() != null) {
+            sql.append(" AND f.release_date >= ?");
+            params.add(query.getReleasedFrom());
+        }
+        if (query.getReleasedTo() != null) {
+            sql.append(" AND f.release_date <= ?");
+            params.add(query.getReleasedTo());
+        }
+        if (query.getDurationMin() != null) {
+            sql.append(" AND f.duration >= ?");
+            params.add(query.getDurationMin());
+        }
+        if (query.getDurationMax() != null) {
+            sql.append(" AND f.duration <= ?");
+            params.add(query.getDurationMax());
+        }
+        if (query.getAfter() != null) {
+            sql.append(" AND ").append(column).append(query.isDescending() ? " <= ?" : " >= ?")
+                    .append(" AND (").append(column).append(compare).append(" OR f.id").append(compare).append(")");
+            params.add(query.getAfter().getValue());
+            params.add(query.getAfter().getValue());
+            params.add(query.getAfter().getFilmId());
+        }
+
+        sql.append(" ORDER BY ").append(column).append(direction).append(", f.id").append(direction).append(" LIMIT ?");
+        params.add(query.getCount());
+
+        return hydrate(findMany(sql.toString(), params.toArray()), fields);
     }
 
     @Override
     public Optional<Film> findById(Long id) {
-        return findOne(FIND_BY_ID_QUERY, id);
+        return findById(id, FilmField.ALL);
     }
 
     @Override
-    public boolean containsFilm(Long id) {
-        return findOne(FIND_BY_ID_QUERY, id).isPresent();
-    }
-
-    //Находит ID наиболее похожего пользователя по совпадению лайков на фильмы.
-    @Transactional(readOnly = true)
-    public Long getMostSimilarUser(Long userId) {
-        log.debug("Finding most similar user for userId={}", userId);
-
-        String sql = """
-                SELECT fl2.user_id
-                FROM likes fl1
-                JOIN likes fl2 ON fl1.film_id = fl2.film_id
-                WHERE fl1.user_id = :userId
-                  AND fl2.user_id != :userId
-                GROUP BY fl2.user_id
-                ORDER BY COUNT(*) DESC
-                LIMIT 1
-                """;
-
-        MapSqlParameterSource params = new MapSqlParameterSource("userId", userId);
-
-        try {
-            Long similarUserId = namedParameterJdbcTemplate.queryForObject(sql, params, Long.class);
-            if (similarUserId == null) {
-                log.warn("No similar user found for userId={}", userId);
-                return null; // Не бросаем исключение, возвращаем null
-            }
-            log.info("Most similar user found for userId={}: similarUserId={}", userId, similarUserId);
-            return similarUserId;
-        } catch (EmptyResultDataAccessException e) {
-            log.warn("No similar user found for userId={} (EmptyResultDataAccessException)", userId);
-            return null;
-        } catch (Exception e) {
-            log.error("Database error while finding similar user for userId={}: {}", userId, e.getMessage(), e);
-            throw new DatabaseException("Ошибка при поиске похожего пользователя для userId=" + userId, e);
+    public Optional<Film> findById(Long id, Set<FilmField> fields) {
+        if (fields.containsAll(FilmField.ALL)) {
+            return filmCache.get(id, this::loadById);
         }
+        return loadById(id, fields);
+    }
+
+    private Optional<Film> loadById(Long id) {
+        return loadById(id, FilmField.ALL);
     }
 
-    //Метод формирует рекомендации для пользователя на основе лайков наиболее похожего пользователя.
-    //Исключает фильмы, которые уже лайкнул целевой пользователь.
-    @Transactional(readOnly = true)
-    public List<Film> getRecommendationsForUserBasedOnLikesOfSimilarUser(Long userId, Long similarUserId) {
-        log.debug("Generating recommendations for userId={} based on similarUserId={}", userId, similarUserId);
-
-        int limitForQuery = 10;
-
-        String sql = """
-                WITH similar_user_liked AS (
-                    SELECT film_id
-                    FROM likes
-                    WHERE user_id = :similarUserId
-                ),
-                user_already_liked AS (
-                    SELECT film_id
-                    FROM likes
-                    WHERE user_id = :userId
-                )
-                SELECT
-                    f.id,
-                    f.name,
-                    f.description,
-                    f.release_date,
-                    f.duration,
-                    m.id AS mpa_id,
-                    m.name AS mpa_name
-                FROM films f
-                JOIN MPAs m ON f.MPA_id = m.id
-                WHERE f.id IN (
-                    SELECT film_id FROM likes WHERE user_id = :similarUserId
-                )
-                AND f.id NOT IN (
-                    SELECT film_id FROM likes WHERE user_id = :userId
-                )
-                ORDER BY f.release_date DESC
-                LIMIT :limit
-                """;
-
-        MapSqlParameterSource params = new MapSqlParameterSource()
-                .addValue("userId", userId)
-                .addValue("similarUserId", similarUserId)
-                .addValue("limit", limitForQuery);
-
-        try {
-            List<Film> recommendations = namedParameterJdbcTemplate.query(sql, params, mapper);
-
-            log.info("Generated {} recommendations for userId={} based on similarUserId={}",
-                    recommendations.size(), userId, similarUserId);
-            return recommendations;
-        } catch (Exception e) {
-            log.error("Database error generating recommendations for userId={}, similarUserId={}: {}",
-                    userId, similarUserId, e.getMessage(), e);
-            throw new DatabaseException("Ошибка при формировании рекомендаций для userId=" + userId, e);
+    private Optional<Film> loadById(Long id, Set<FilmField> fields) {
+        return findOne(FIND_BY_ID_QUERY, id)
+                .map(film -> hydrate(List.of(film), fields).getFirst());
+    }
+
+    // Фильмы возвращаются в порядке переданных id, удалённые пропускаются
+    @Override
+    public List<Film> findByIds(Collection<Long> ids, Set<FilmField> fields) {
+        List<Long> idList = List.copyOf(ids);
+        Map<Long, Film> found = new HashMap<>();
+        for (int from = 0; from < idList.size(); from += IN_CHUNK_SIZE) {
+            List<Long> chunk = idList.subList(from, Math.min(from + IN_CHUNK_SIZE, idList.size()));
+            findMany(String.format(FIND_BY_IDS_QUERY, inPlaceholders(chunk.size())), chunk.toArray())
+                    .forEach(film -> found.put(film.getId(), film));
         }
+
+        List<Film> films = idList.stream()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return hydrate(films, fields);
     }
 
+    @Override
+    public boolean containsFilm(Long id) {
+        if (id == null) {
+            return false;
+        }
+        if (filmIds.isTracked(id)) {
+            return filmIds.contains(id);
+        }
+        return findCount(CONTAINS_QUERY, id) > 0;
+    }
 
+    // Список посчитан заранее UserRecommendationJob, чтение - диапазон индекса (user_id, sort_order)
     @Override
-    @Transactional(readOnly = true)
     public List<Film> getRecommendationFilms(Long userId) {
-        log.debug("Starting recommendation process for userId={}", userId);
+        return getRecommendationFilms(userId, FilmField.ALL);
+    }
 
-        Long similarUserId = getMostSimilarUser(userId);
-        if (similarUserId == null) {
-            log.warn("No similar user found for userId={}, returning empty List", userId);
-            return List.of();
-        }
-        return getRecommendationsForUserBasedOnLikesOfSimilarUser(userId, similarUserId); // Может выбросить DatabaseException
+    @Override
+    public List<Film> getRecommendationFilms(Long userId, Set<FilmField> fields) {
+        return hydrate(findMany(FIND_RECOMMENDATIONS_QUERY, userId), fields);
     }
 
+    // Список посчитан заранее FilmSimilarityJob, чтение - диапазон индекса (film_id, score)
+    @Override
+    public List<Film> findSimilar(Long filmId, int count, Set<FilmField> fields) {
+        return hydrate(findMany(FIND_SIMILAR_QUERY, filmId, count), fields);
+    }
+
+    @Override
+    public List<Film> findTopByIds(Collection<Long> ids, int count, Set<FilmField> fields) {
+        // Пачки режутся по likes_count, поэтому сначала записываем накопленные лайки.
+        // Лучшие count фильмов всего набора есть среди лучших count каждой пачки, поэтому сливаем пачки и обрезаем
+        likeCounters.flush();
+        List<Long> idList = List.copyOf(ids);
+        List<Film> top = new ArrayList<>();
+        for (int from = 0; from < idList.size(); from += IN_CHUNK_SIZE) {
+            List<Long> chunk = idList.subList(from, Math.min(from + IN_CHUNK_SIZE, idList.size()));
+            List<Object> params = new ArrayList<>(chunk);
+            params.add(count);
+            top.addAll(findMany(String.format(FIND_TOP_BY_IDS_QUERY, inPlaceholders(chunk.size())), params.toArray()));
+        }
+
+        // likesCount уже включает ещё не сброшенные в БД лайки, итоговый порядок считаем по нему
+        top.sort(Comparator.comparingLong(Film::getLikesCount).reversed().thenComparing(Film::getId));
+        return hydrate(top.size() > count ? new ArrayList<>(top.subList(0, count)) : top, fields);
+    }
 
     @Override
     public List<Film> getMostPopularFilms(int count, Integer genreId, Integer year) {
-        StringBuilder sql = new StringBuilder("""
-                        SELECT
-                        f.id,
-                        f.name,
-                        f.description,
-                        f.release_date,
-                        f.duration,
-                        f.MPA_id,
-                        COUNT(l.user_id) AS likes_count
-                        FROM films f
-                        LEFT JOIN likes l ON f.id = l.film_id
-                        LEFT JOIN film_genres fg ON f.id = fg.film_id
-                        LEFT JOIN genres g ON fg.genre_id = g.id
-                        LEFT JOIN MPAs m ON f.MPA_id = m.id
-                """);
+        return getMostPopularFilms(count, genreId, year, FilmField.ALL);
+    }
+
+    @Override
+    public List<Film> getMostPopularFilms(int count, Integer genreId, Integer year, Set<FilmField> fields) {
+        // Жанр проверяется через EXISTS, а год - по индексируемому release_year: без лишних соединений
+        // и без GROUP BY по всем колонкам фильма
+        StringBuilder sql = new StringBuilder(FIND_ALL_QUERY);
 
         List<Object> paramValues = new ArrayList<>();
         List<String> conditions = new ArrayList<>();
 
-
         if (genreId != null) {
-            conditions.add("g.id = ?");
+            conditions.add("EXISTS (SELECT 1 FROM film_genres fg WHERE fg.film_id = f.id AND fg.genre_id = ?)");
             paramValues.add(genreId);
         }
 
-
         if (year != null) {
-            conditions.add("EXTRACT(YEAR FROM f.release_date) = ?");
+            conditions.add("f.release_year = ?");
             paramValues.add(year);
         }
 
-
-        if (!conditions.isEmpty()) {
-            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        for (String condition : conditions) {
+            sql.append(" AND ").append(condition);
         }
 
-
-        sql.append(" GROUP BY f.id, f.name, f.description, f.release_date, f.duration, f.MPA_id ")
-                .append("ORDER BY likes_count DESC ")
-                .append("LIMIT ?");
+        // H2 читает индекс по порядку, только если ORDER BY начинается с его столбцов, в том числе
+        // зафиксированных равенством: так запрос останавливается на первых count строках индекса
+        sql.append(" ORDER BY f.deleted, ");
+        if (year != null) {
+            sql.append("f.release_year, ");
+        }
+        sql.append("f.likes_count DESC, f.id LIMIT ?");
         paramValues.add(count);
 
 
-        return findMany(sql.toString(), paramValues.toArray());
+        // LIMIT отсекает по likes_count: фильм с незаписанными лайками не должен выпасть из топа
+        likeCounters.flush();
+        return analytic(() -> hydrate(findMany(sql.toString(), paramValues.toArray()), fields));
     }
 
 
     private void updGenres(Film film) {
         delete(DELETE_FILM_GENRE_QUERY, film.getId());
-        film.getGenres().stream()
-                .map(Genre::getId)
-                .forEach(genre_id -> insert(INSERT_FILM_GENRE_QUERY, film.getId(), genre_id));
+        insertGenres(film);
+    }
+
+    private void insertGenres(Film film) {
+        if (film.getGenres().isEmpty()) {
+            return;
+        }
+
+        jdbc.batchUpdate(INSERT_FILM_GENRE_QUERY, film.getGenres().stream()
+                .map(genre -> new Object[]{film.getId(), genre.getId()})
+                .toList());
     }
 
     public List<Film> getFilmsByDirectorSortedByYear(Long directorId) {
-        return jdbc.query(FIND_FILMS_BY_DIRECTOR_BY_YEAR, mapper, directorId);
+        return getFilmsByDirectorSortedByYear(directorId, FilmField.ALL);
+    }
+
+    @Override
+    public List<Film> getFilmsByDirectorSortedByYear(Long directorId, Set<FilmField> fields) {
+        return hydrate(jdbc.query(FIND_FILMS_BY_DIRECTOR_BY_YEAR, mapper, directorId), fields);
     }
 
     public List<Film> getFilmsByDirectorSortedByLikes(Long directorId) {
-        return jdbc.query(FIND_FILMS_BY_DIRECTOR_BY_LIKES, mapper, directorId);
+        return getFilmsByDirectorSortedByLikes(directorId, FilmField.ALL);
     }
 
+    @Override
+    public List<Film> getFilmsByDirectorSortedByLikes(Long directorId, Set<FilmField> fields) {
+        likeCounters.flush();
+        return hydrate(jdbc.query(FIND_FILMS_BY_DIRECTOR_BY_LIKES, mapper, directorId), fields);
+    }
+
+    // В асинхронном режиме фильм только помечается удалённым, связанные строки удаляет PurgeWorker
     public boolean deleteById(Long filmId) {
-        return delete(DELETE_BY_ID_QUERY, filmId);
+        boolean deleted = asyncPurge
+                ? delete(MARK_DELETED_QUERY, filmId)
+                : delete(DELETE_BY_ID_QUERY, filmId);
+        if (deleted) {
+            filmIds.remove(filmId);
+            filmCache.invalidate(filmId);
+            reviewLeaderboard.invalidate(filmId);
+            trendingCounters.remove(filmId);
+            likeCounters.remove(filmId);
+        }
+        return deleted;
     }
 
     public List<Film> findByTitle(String query) {
+        return findByTitle(query, FilmField.ALL);
+    }
+
+    @Override
+    public List<Film> findByTitle(String query, Set<FilmField> fields) {
         String pattern = "%" + query + "%";
-        return jdbc.query(FIND_BY_TITLE, mapper, pattern);
+        likeCounters.flush();
+        return analytic(() -> hydrate(jdbc.query(FIND_BY_TITLE, mapper, pattern), fields));
     }
 
     public List<Film> findByDirector(String query) {
+        return findByDirector(query, FilmField.ALL);
+    }
+
+    @Override
+    public List<Film> findByDirector(String query, Set<FilmField> fields) {
         String pattern = "%" + query + "%";
-        return jdbc.query(FIND_BY_DIRECTOR, mapper, pattern);
+        likeCounters.flush();
+        return analytic(() -> hydrate(jdbc.query(FIND_BY_DIRECTOR, mapper, pattern), fields));
     }
 
     public List<Film> findByTitleOrDirector(String query) {
+        return findByTitleOrDirector(query, FilmField.ALL);
+    }
+
+    @Override
+    public List<Film> findByTitleOrDirector(String query, Set<FilmField> fields) {
         String pattern = "%" + query + "%";
-        return jdbc.query(FIND_BY_TITLE_OR_DIRECTOR, mapper, pattern, pattern);
+        likeCounters.flush();
+        return analytic(() -> hydrate(jdbc.query(FIND_BY_TITLE_OR_DIRECTOR, mapper, pattern, pattern), fields));
+    }
+
+    private List<Film> hydrate(List<Film> films) {
+        return hydrate(films, FilmField.ALL);
+    }
+
+    // Догружает связанные сущности только для запрошенных полей, по одному запросу на каждую пачку фильмов
+    private List<Film> hydrate(List<Film> films, Set<FilmField> fields) {
+        if (films.isEmpty()) {
+            return films;
+        }
+
+        if (fields.contains(FilmField.MPA)) {
+            Map<Long, MPA> mpas = mpasRepository.findAll().stream()
+                    .collect(Collectors.toMap(MPA::getId, Function.identity()));
+            films.stream()
+                    .map(Film::getMpa)
+                    .filter(mpa -> mpa != null && mpas.containsKey(mpa.getId()))
+                    .forEach(mpa -> mpa.setName(mpas.get(mpa.getId()).getName()));
+        }
+
+        boolean withGenres = fields.contains(FilmField.GENRES);
+        boolean withDirectors = fields.contains(FilmField.DIRECTORS);
+        if (!withGenres && !withDirectors) {
+            return films;
+        }
+
+        for (int from = 0; from < films.size(); from += IN_CHUNK_SIZE) {
+            List<Film> chunk = films.subList(from, Math.min(from + IN_CHUNK_SIZE, films.size()));
+            List<Long> ids = chunk.stream().map(Film::getId).toList();
+
+            if (withGenres) {
+                Map<Long, List<Genre>> genres = genresRepository.findFilmGenres(ids);
+                chunk.forEach(film -> film.getGenres().addAll(genres.getOrDefault(film.getId(), List.of())));
+            }
+            if (withDirectors) {
+                Map<Long, List<Director>> directors = filmDirectorStorage.getDirectorsByFilmIds(ids);
+                chunk.forEach(film -> film.getDirectors().addAll(directors.getOrDefault(film.getId(), List.of())));
+            }
+        }
+
+        return films;
     }
 }
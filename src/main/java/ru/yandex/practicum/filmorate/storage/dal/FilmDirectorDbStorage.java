@@ -7,8 +7,13 @@ import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.dal.mapper.DirectorRowMapper;
 import ru.yandex.practicum.filmorate.storage.director.FilmDirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Component
@@ -21,25 +26,32 @@ public class FilmDirectorDbStorage implements FilmDirectorStorage {
                     "FROM directors d " +
                     "JOIN film_directors fd ON d.id = fd.director_id " +
                     "WHERE fd.film_id = ?";
+    private static final String SELECT_BY_FILM_IDS =
+            "SELECT fd.film_id, d.id, d.name " +
+                    "FROM directors d " +
+                    "JOIN film_directors fd ON d.id = fd.director_id " +
+                    "WHERE fd.film_id IN (%s)";
     private static final String SELECT_FILMS_BY_DIRECTOR =
             "SELECT film_id FROM film_directors WHERE director_id = ?";
 
     private final JdbcTemplate jdbc;
     private final DirectorRowMapper mapper;
+    private final FilmCache filmCache;
 
     @Override
     public void addDirectorsToFilm(long filmId, List<Director> directors) {
-        log.info(directors.toString());
-        if (directors == null) return;
-        log.info(directors.toString());
-        for (Director director : directors) {
-            jdbc.update(INSERT, filmId, director.getId());
-        }
+        if (directors == null || directors.isEmpty()) return;
+        log.debug("Adding directors {} to film id = {}", directors, filmId);
+        jdbc.batchUpdate(INSERT, directors.stream()
+                .map(director -> new Object[]{filmId, director.getId()})
+                .toList());
+        filmCache.invalidate(filmId);
     }
 
     @Override
     public void deleteDirectorsFromFilm(long filmId) {
         jdbc.update(DELETE_ALL, filmId);
+        filmCache.invalidate(filmId);
     }
 
     @Override
@@ -47,6 +59,27 @@ public class FilmDirectorDbStorage implements FilmDirectorStorage {
         return jdbc.query(SELECT_BY_FILM, mapper, filmId);
     }
 
+    @Override
+    public Map<Long, List<Director>> getDirectorsByFilmIds(Collection<Long> filmIds) {
+        Map<Long, List<Director>> result = new HashMap<>();
+        if (filmIds.isEmpty()) {
+            return result;
+        }
+
+        List<Long> idList = List.copyOf(filmIds);
+        for (int from = 0; from < idList.size(); from += BaseDbStorage.IN_CHUNK_SIZE) {
+            List<Long> chunk = idList.subList(from, Math.min(from + BaseDbStorage.IN_CHUNK_SIZE, idList.size()));
+            jdbc.query(String.format(SELECT_BY_FILM_IDS, BaseDbStorage.inPlaceholders(chunk.size())),
+                    rs -> {
+                        result.computeIfAbsent(rs.getLong("film_id"), id -> new ArrayList<>())
+                                .add(mapper.mapRow(rs, 0));
+                    },
+                    chunk.toArray());
+        }
+
+        return result;
+    }
+
     @Override
     public List<Long> getFilmsByDirector(long directorId) {
         return jdbc.queryForList(SELECT_FILMS_BY_DIRECTOR, Long.class, directorId);
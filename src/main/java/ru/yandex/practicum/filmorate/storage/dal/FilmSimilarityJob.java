@@ -0,0 +1,140 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Пересчёт таблицы film_similarity: для фильма хранится top-N фильмов по косинусной мере
+ * совместных лайков co_likes / sqrt(likes(a) * likes(b)). Первый запуск считает все фильмы с лайками,
+ * следующие - только фильмы, чьи наборы лайков изменились, и фильмы, которые лайкали те же пользователи.
+ * Фильмы делятся на пачки, пачки считаются параллельно в filmorate.similar.parallelism потоков (BatchRunner).
+ */
+@Slf4j
+@Component
+public class FilmSimilarityJob {
+    // Обе части меры считаются по таблице likes: films.likes_count отстаёт на ещё не сброшенные лайки
+    private static final String FIND_LIKED_FILMS_QUERY = "SELECT DISTINCT l.film_id FROM likes l " +
+            "JOIN films f ON f.id = l.film_id AND f.deleted = FALSE";
+    private static final String FIND_FILMS_OF_USERS_QUERY = "SELECT DISTINCT film_id FROM likes WHERE user_id IN (%s)";
+    private static final String FIND_LIKES_COUNT_QUERY = "SELECT COUNT(*) FROM likes WHERE film_id = ?";
+    // Совместные лайки считаются по индексам likes(film_id, user_id) и likes(user_id, film_id)
+    private static final String FIND_SIMILAR_QUERY = "SELECT l2.film_id AS similar_film_id, COUNT(*) AS co_likes, " +
+            "COUNT(*) / SQRT(CAST(? AS DOUBLE PRECISION) * " +
+            "(SELECT COUNT(*) FROM likes c WHERE c.film_id = l2.film_id)) AS score " +
+            "FROM likes l1 " +
+            "JOIN likes l2 ON l2.user_id = l1.user_id AND l2.film_id <> l1.film_id " +
+            "JOIN films f ON f.id = l2.film_id AND f.deleted = FALSE " +
+            "WHERE l1.film_id = ? " +
+            "GROUP BY l2.film_id " +
+            "ORDER BY score DESC, similar_film_id LIMIT ?";
+    private static final String MERGE_QUERY = "MERGE INTO film_similarity (film_id, similar_film_id, co_likes, score) " +
+            "KEY (film_id, similar_film_id) VALUES (?, ?, ?, ?)";
+    private static final String DELETE_ALL_QUERY = "DELETE FROM film_similarity WHERE film_id = ?";
+    private static final String DELETE_STALE_QUERY = "DELETE FROM film_similarity WHERE film_id = ? " +
+            "AND similar_film_id NOT IN (%s)";
+
+    private final JdbcTemplate jdbc;
+    private final int topN;
+    private final BatchRunner batches;
+    private final Set<Long> dirtyFilms = ConcurrentHashMap.newKeySet();
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+    private volatile boolean computed;
+
+    public FilmSimilarityJob(JdbcTemplate jdbc,
+                             @Value("${filmorate.similar.top-n:20}") int topN,
+                             @Value("${filmorate.similar.batch-size:500}") int batchSize,
+                             @Value("${filmorate.similar.parallelism:4}") int parallelism) {
+        this.jdbc = jdbc;
+        this.topN = topN;
+        this.batches = new BatchRunner("Film similarity", batchSize, parallelism);
+    }
+
+    // Лайк меняет совместные лайки фильма со всеми фильмами, которые лайкал этот пользователь
+    public void changed(Long filmId, Long userId) {
+        AfterCommit.run(() -> markDirty(filmId, userId));
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.similar.refresh-ms:60000}",
+            fixedDelayString = "${filmorate.similar.refresh-ms:60000}")
+    public synchronized void refresh() {
+        long startedAt = System.currentTimeMillis();
+        List<Long> filmIds = computed ? drainDirty() : all();
+        if (filmIds.isEmpty()) {
+            return;
+        }
+
+        if (!batches.run(filmIds, this::recompute)) {
+            dirtyFilms.addAll(filmIds);
+            return;
+        }
+
+        computed = true;
+        log.info("Film similarity refreshed for {} films in {} ms", filmIds.size(),
+                System.currentTimeMillis() - startedAt);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batches.shutdown();
+    }
+
+    private void markDirty(Long filmId, Long userId) {
+        dirtyFilms.add(filmId);
+        dirtyUsers.add(userId);
+    }
+
+    private List<Long> all() {
+        dirtyFilms.clear();
+        dirtyUsers.clear();
+        return jdbc.queryForList(FIND_LIKED_FILMS_QUERY, Long.class);
+    }
+
+    private List<Long> drainDirty() {
+        Set<Long> films = new HashSet<>();
+        for (Long filmId : List.copyOf(dirtyFilms)) {
+            dirtyFilms.remove(filmId);
+            films.add(filmId);
+        }
+
+        List<Long> users = new ArrayList<>();
+        for (Long userId : List.copyOf(dirtyUsers)) {
+            dirtyUsers.remove(userId);
+            users.add(userId);
+        }
+        for (int from = 0; from < users.size(); from += BaseDbStorage.IN_CHUNK_SIZE) {
+            List<Long> chunk = users.subList(from, Math.min(from + BaseDbStorage.IN_CHUNK_SIZE, users.size()));
+            films.addAll(jdbc.queryForList(String.format(FIND_FILMS_OF_USERS_QUERY,
+                    BaseDbStorage.inPlaceholders(chunk.size())), Long.class, chunk.toArray()));
+        }
+        return new ArrayList<>(films);
+    }
+
+    private void recompute(Long filmId) {
+        Integer likes = jdbc.queryForObject(FIND_LIKES_COUNT_QUERY, Integer.class, filmId);
+        if (likes == null || likes == 0) {
+            jdbc.update(DELETE_ALL_QUERY, filmId);
+            return;
+        }
+
+        List<Object[]> rows = jdbc.query(FIND_SIMILAR_QUERY, (rs, rowNum) -> new Object[]{
+                filmId, rs.getLong("similar_film_id"), rs.getInt("co_likes"), rs.getDouble("score")
+        }, likes, filmId, topN);
+        if (rows.isEmpty()) {
+            jdbc.update(DELETE_ALL_QUERY, filmId);
+            return;
+        }
+
+        BaseDbStorage.replaceRows(jdbc, MERGE_QUERY, rows, DELETE_STALE_QUERY, filmId,
+                rows.stream().map(row -> (Long) row[1]).toList());
+    }
+}
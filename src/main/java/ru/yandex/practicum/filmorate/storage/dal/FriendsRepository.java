@@ -4,35 +4,74 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class FriendsRepository extends BaseDbStorage<Long> {
-    private static final String FIND_ALL_FRIENDS_QUERY = "SELECT second_id FROM friends WHERE first_id = ?";
+    private static final String FIND_ALL_FRIENDS_QUERY = "SELECT fr.second_id FROM friends fr " +
+            "JOIN users u ON u.id = fr.second_id AND u.deleted = FALSE " +
+            "WHERE fr.first_id = ?";
+    private static final String FIND_FRIENDS_BY_USER_IDS_QUERY = "SELECT fr.first_id, fr.second_id FROM friends fr " +
+            "JOIN users u ON u.id = fr.second_id AND u.deleted = FALSE " +
+            "WHERE fr.first_id IN (%s)";
     private static final String INSERT_QUERY = "INSERT INTO friends (first_id, second_id) " +
             "VALUES (?, ?)";
     private static final String DELETE_QUERY = "DELETE FROM friends WHERE first_id = ? AND second_id = ?";
     private static final String DELETE_ALL_BY_USER_ID_QUERY = "DELETE FROM friends WHERE first_id = ? OR second_id = ?";
 
+    private final FriendGraph friendGraph;
+
     public FriendsRepository(JdbcTemplate jdbc,
-                             @Qualifier("friendsRowMapper") RowMapper<Long> mapper) {
+                             @Qualifier("friendsRowMapper") RowMapper<Long> mapper,
+                             FriendGraph friendGraph) {
         super(jdbc, mapper);
+        this.friendGraph = friendGraph;
     }
 
     public List<Long> findAllFriends(Long userId) {
         return findMany(FIND_ALL_FRIENDS_QUERY, userId);
     }
 
+    public Map<Long, List<Long>> findAllFriends(Collection<Long> userIds) {
+        Map<Long, List<Long>> result = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return result;
+        }
+
+        jdbc.query(String.format(FIND_FRIENDS_BY_USER_IDS_QUERY, inPlaceholders(userIds.size())),
+                rs -> {
+                    result.computeIfAbsent(rs.getLong("first_id"), id -> new ArrayList<>())
+                            .add(rs.getLong("second_id"));
+                },
+                userIds.toArray());
+
+        return result;
+    }
+
     public void create(Long firstId, Long secId) {
         insert(INSERT_QUERY, firstId, secId);
+        friendGraph.added(firstId, secId);
     }
 
     public boolean delete(Long firstId, Long secId) {
-        return delete(DELETE_QUERY, firstId, secId);
+        boolean deleted = delete(DELETE_QUERY, firstId, secId);
+        if (deleted) {
+            friendGraph.removed(firstId, secId);
+        }
+        return deleted;
     }
 
     public boolean deleteAllByUserId(Long userId) {
-        return delete(DELETE_ALL_BY_USER_ID_QUERY, userId, userId);
+        boolean deleted = delete(DELETE_ALL_BY_USER_ID_QUERY, userId, userId);
+        if (deleted) {
+            friendGraph.userRemoved(userId);
+        }
+        return deleted;
     }
 }
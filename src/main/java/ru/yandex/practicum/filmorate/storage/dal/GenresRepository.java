@@ -7,7 +7,11 @@ import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Genre;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class GenresRepository extends BaseDbStorage<Genre> {
@@ -16,6 +20,10 @@ public class GenresRepository extends BaseDbStorage<Genre> {
             "WHERE id IN (SELECT genre_id " +
             "FROM film_genres " +
             "WHERE film_id = ?)";
+    private static final String FIND_GENRES_BY_FILM_IDS_QUERY = "SELECT fg.film_id, g.id, g.name " +
+            "FROM film_genres fg " +
+            "JOIN genres g ON g.id = fg.genre_id " +
+            "WHERE fg.film_id IN (%s)";
     private static final String FIND_ALL_QUERY = "SELECT * FROM genres";
     private static final String FIND_BY_ID_QUERY = "SELECT * FROM genres WHERE id = ?";
     private static final String DELETE_FILM_GENRES_QUERY = "DELETE FROM film_genres WHERE film_id = ?";
@@ -29,6 +37,22 @@ public class GenresRepository extends BaseDbStorage<Genre> {
         return findMany(FIND_FILM_GENRES_QUERY, filmId.intValue());
     }
 
+    public Map<Long, List<Genre>> findFilmGenres(Collection<Long> filmIds) {
+        Map<Long, List<Genre>> result = new HashMap<>();
+        if (filmIds.isEmpty()) {
+            return result;
+        }
+
+        jdbc.query(String.format(FIND_GENRES_BY_FILM_IDS_QUERY, inPlaceholders(filmIds.size())),
+                rs -> {
+                    result.computeIfAbsent(rs.getLong("film_id"), id -> new ArrayList<>())
+                            .add(mapper.mapRow(rs, 0));
+                },
+                filmIds.toArray());
+
+        return result;
+    }
+
     public List<Genre> findAll() {
         return findMany(FIND_ALL_QUERY);
     }
@@ -0,0 +1,72 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * JdbcTemplate, который ставит каждому запросу тайм-аут по его классу и регистрирует запрос для отмены,
+ * если клиент отключился. Отменённые и прерванные по тайм-ауту запросы считаются в метриках
+ * filmorate.db.queries.cancelled и filmorate.db.queries.timed_out.
+ */
+@Slf4j
+public class GuardedJdbcTemplate extends JdbcTemplate {
+    // Код ошибки H2 STATEMENT_WAS_CANCELED: и отмена, и тайм-аут
+    private static final int H2_STATEMENT_WAS_CANCELED = 57014;
+
+    private final Map<QueryClass, Integer> timeoutSeconds;
+    private final MeterRegistry meterRegistry;
+
+    public GuardedJdbcTemplate(DataSource dataSource, Map<QueryClass, Integer> timeoutSeconds,
+                               MeterRegistry meterRegistry) {
+        super(dataSource);
+        this.timeoutSeconds = timeoutSeconds;
+        this.meterRegistry = meterRegistry;
+
+        SQLExceptionTranslator translator = getExceptionTranslator();
+        setExceptionTranslator((task, sql, ex) -> translate(translator, task, sql, ex));
+    }
+
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        super.applyStatementSettings(stmt);
+
+        int timeout = timeoutSeconds.getOrDefault(QueryContext.currentClass(), 0);
+        // Тайм-аут транзакции, если он меньше, остаётся в силе
+        if (timeout > 0 && (stmt.getQueryTimeout() == 0 || stmt.getQueryTimeout() > timeout)) {
+            stmt.setQueryTimeout(timeout);
+        }
+
+        QueryContext.Cancellation cancellation = QueryContext.currentCancellation();
+        if (cancellation != null) {
+            cancellation.register(stmt);
+        }
+    }
+
+    private DataAccessException translate(SQLExceptionTranslator translator, String task, String sql,
+                                          SQLException ex) {
+        if (ex.getErrorCode() != H2_STATEMENT_WAS_CANCELED) {
+            return translator.translate(task, sql, ex);
+        }
+
+        String queryClass = QueryContext.currentClass().name().toLowerCase();
+        QueryContext.Cancellation cancellation = QueryContext.currentCancellation();
+        if (cancellation != null && cancellation.isCancelled()) {
+            meterRegistry.counter("filmorate.db.queries.cancelled", "class", queryClass).increment();
+            log.info("Query cancelled, client disconnected: {}", sql);
+            return new QueryCancelledException("Запрос отменён: клиент отключился", ex);
+        }
+
+        meterRegistry.counter("filmorate.db.queries.timed_out", "class", queryClass).increment();
+        log.warn("Query timed out ({}): {}", queryClass, sql);
+        return new QueryTimeoutException("Превышено время выполнения запроса", ex);
+    }
+}
@@ -0,0 +1,138 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Битовая карта существующих (не помеченных удалёнными) id одной таблицы. Отвечает на вопрос "есть ли запись с таким id"
+ * без запроса в БД. Изменения внутри транзакции копятся в её собственном наложении: их видит только она,
+ * в общую карту они попадают после коммита, при откате отбрасываются.
+ */
+@Slf4j
+public class IdBitmap {
+    private final String table;
+    private final BitSet ids = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public IdBitmap(String table) {
+        this.table = table;
+    }
+
+    public void load(JdbcTemplate jdbc) {
+        BitSet loaded = new BitSet();
+        jdbc.query("SELECT id FROM " + table + " WHERE deleted = FALSE", rs -> {
+            long id = rs.getLong(1);
+            if (isTracked(id)) {
+                loaded.set((int) id);
+            }
+        });
+
+        lock.writeLock().lock();
+        try {
+            ids.clear();
+            ids.or(loaded);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Loaded {} ids of {} into bitmap ({} bytes)", loaded.cardinality(), table, loaded.size() / 8);
+    }
+
+    // id вне диапазона int не хранятся в карте, их наличие нужно проверять запросом
+    public boolean isTracked(long id) {
+        return id >= 0 && id <= Integer.MAX_VALUE;
+    }
+
+    public boolean contains(long id) {
+        Overlay overlay = currentOverlay(false);
+        if (overlay != null && overlay.changes.containsKey(id)) {
+            return overlay.changes.get(id);
+        }
+
+        lock.readLock().lock();
+        try {
+            return ids.get((int) id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(long id) {
+        change(id, true);
+    }
+
+    public void remove(long id) {
+        change(id, false);
+    }
+
+    public int cardinality() {
+        lock.readLock().lock();
+        try {
+            return ids.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void change(long id, boolean present) {
+        if (!isTracked(id)) {
+            return;
+        }
+
+        Overlay overlay = currentOverlay(true);
+        if (overlay != null) {
+            overlay.changes.put(id, present);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            ids.set((int) id, present);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Наложение ищется среди синхронизаций текущей транзакции: у приостановленной внешней транзакции оно своё
+    private Overlay currentOverlay(boolean create) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof Overlay overlay && overlay.bitmap() == this) {
+                return overlay;
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        Overlay overlay = new Overlay();
+        TransactionSynchronizationManager.registerSynchronization(overlay);
+        return overlay;
+    }
+
+    private final class Overlay implements TransactionSynchronization {
+        private final Map<Long, Boolean> changes = new HashMap<>();
+
+        private IdBitmap bitmap() {
+            return IdBitmap.this;
+        }
+
+        @Override
+        public void afterCommit() {
+            lock.writeLock().lock();
+            try {
+                changes.forEach((id, present) -> ids.set(id.intValue(), present));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
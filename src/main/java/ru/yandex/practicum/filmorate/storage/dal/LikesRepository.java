@@ -2,46 +2,144 @@ package ru.yandex.practicum.filmorate.storage.dal;
 
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.LikeCounters;
+import ru.yandex.practicum.filmorate.storage.film.TrendingCounters;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class LikesRepository extends BaseDbStorage<Long> {
     private static final String ALL_LIKES_BY_FILM_QUERY = "SELECT user_id FROM likes WHERE film_id = ?";
-    private static final String ALL_LIKED_BY_USER_QUERY = "SELECT film_id FROM likes WHERE user_id = ?";
-    private static final String INSERT_QUERY = "INSERT INTO likes (film_id, user_id) VALUES (?, ?)";
-    private static final String DELETE_QUERY = "DELETE FROM likes WHERE film_id = ? AND user_id = ?";
+    private static final String LIKES_PAGE_BY_FILM_QUERY = "SELECT user_id FROM likes WHERE film_id = ? " +
+            "ORDER BY user_id LIMIT ? OFFSET ?";
+    private static final String COUNT_LIKE_QUERY = "SELECT COUNT(*) FROM likes WHERE film_id = ? AND user_id = ?";
+    private static final String ALL_LIKED_BY_USER_QUERY = "SELECT l.film_id FROM likes l " +
+            "JOIN films f ON f.id = l.film_id AND f.deleted = FALSE " +
+            "WHERE l.user_id = ?";
+    private static final String LIKED_BY_USERS_QUERY = "SELECT l.user_id, l.film_id FROM likes l " +
+            "JOIN films f ON f.id = l.film_id AND f.deleted = FALSE " +
+            "WHERE l.user_id IN (%s)";
+    private static final String LIKED_BY_FRIENDS_QUERY = "SELECT DISTINCT l.film_id FROM friends fr " +
+            "JOIN likes l ON l.user_id = fr.second_id " +
+            "JOIN films f ON f.id = l.film_id AND f.deleted = FALSE " +
+            "WHERE fr.first_id IN (%s)";
+    private static final String INSERT_QUERY = "INSERT INTO likes (film_id, user_id, liked_at) VALUES (?, ?, ?)";
+    // Время удалённого лайка нужно, чтобы уменьшить корзину, в которую он был посчитан
+    private static final String DELETE_QUERY = "SELECT liked_at FROM OLD TABLE " +
+            "(DELETE FROM likes WHERE film_id = ? AND user_id = ?)";
     private static final String DELETE_ALL_BY_USER_ID_QUERY = "DELETE FROM likes WHERE user_id = ?";
     private static final String DELETE_ALL_BY_FILM_ID_QUERY = "DELETE FROM likes WHERE film_id = ?";
 
+    private final FilmCache filmCache;
+    private final TrendingCounters trendingCounters;
+    private final LikeCounters likeCounters;
+    private final FilmSimilarityJob filmSimilarityJob;
+    private final UserRecommendationJob userRecommendationJob;
+
     public LikesRepository(JdbcTemplate jdbc,
-                           @Qualifier("likesRowMapper") RowMapper<Long> mapper) {
+                           @Qualifier("likesRowMapper") RowMapper<Long> mapper,
+                           FilmCache filmCache,
+                           TrendingCounters trendingCounters,
+                           LikeCounters likeCounters,
+                           FilmSimilarityJob filmSimilarityJob,
+                           UserRecommendationJob userRecommendationJob) {
         super(jdbc, mapper);
+        this.filmCache = filmCache;
+        this.trendingCounters = trendingCounters;
+        this.likeCounters = likeCounters;
+        this.filmSimilarityJob = filmSimilarityJob;
+        this.userRecommendationJob = userRecommendationJob;
     }
 
     public List<Long> findAllLikesByFilmId(Long filmId) {
         return findMany(ALL_LIKES_BY_FILM_QUERY, filmId);
     }
 
+    public List<Long> findLikesByFilmId(Long filmId, int from, int size) {
+        return findMany(LIKES_PAGE_BY_FILM_QUERY, filmId, size, from);
+    }
+
+    public boolean isLiked(Long filmId, Long userId) {
+        return findCount(COUNT_LIKE_QUERY, filmId, userId) > 0;
+    }
+
     public List<Long> findAllLikedByUserId(Long userId) {
         return jdbc.queryForList(ALL_LIKED_BY_USER_QUERY, Long.class, userId);
     }
 
+    /**
+     * Битовые карты фильмов, понравившихся каждому из пользователей: один запрос на пачку пользователей.
+     * Пользователь без лайков получает пустую карту.
+     */
+    public Map<Long, BitSet> findLikedFilmsByUserIds(Collection<Long> userIds) {
+        Map<Long, BitSet> liked = new HashMap<>();
+        userIds.forEach(userId -> liked.put(userId, new BitSet()));
+        forEachChunk(userIds, LIKED_BY_USERS_QUERY, rs -> setFilm(liked.get(rs.getLong("user_id")), rs.getLong("film_id")));
+        return liked;
+    }
+
+    // Объединение лайков всех друзей пользователей - предпочтения их ближайших соседей по графу дружбы
+    public BitSet findLikedFilmsOfFriends(Collection<Long> userIds) {
+        BitSet liked = new BitSet();
+        forEachChunk(userIds, LIKED_BY_FRIENDS_QUERY, rs -> setFilm(liked, rs.getLong("film_id")));
+        return liked;
+    }
+
     public void create(Long filmId, Long userId) {
-        insert(INSERT_QUERY, filmId, userId);
+        Instant likedAt = Instant.now();
+        insert(INSERT_QUERY, filmId, userId, Timestamp.from(likedAt));
+        likeCounters.add(filmId, 1);
+        filmCache.invalidate(filmId);
+        trendingCounters.liked(filmId, likedAt);
+        filmSimilarityJob.changed(filmId, userId);
+        userRecommendationJob.changed(userId);
     }
 
     public void delete(Long filmId, Long userId) {
-        delete(DELETE_QUERY, filmId, userId);
+        List<Timestamp> deleted = QueryContext.run(QueryClass.POINT,
+                () -> jdbc.queryForList(DELETE_QUERY, Timestamp.class, filmId, userId));
+        likeCounters.add(filmId, -deleted.size());
+        filmCache.invalidate(filmId);
+        deleted.forEach(likedAt -> trendingCounters.unliked(filmId, likedAt.toInstant()));
+        filmSimilarityJob.changed(filmId, userId);
+        userRecommendationJob.changed(userId);
     }
 
     public boolean deleteAllByUserId(Long userId) {
+        filmCache.invalidateAll();
         return delete(DELETE_ALL_BY_USER_ID_QUERY, userId);
     }
 
     public boolean deleteAllByFilmId(Long filmId) {
+        filmCache.invalidate(filmId);
         return delete(DELETE_ALL_BY_FILM_ID_QUERY, filmId);
     }
+
+    private void forEachChunk(Collection<Long> userIds, String query, RowCallbackHandler handler) {
+        List<Long> idList = List.copyOf(userIds);
+        for (int from = 0; from < idList.size(); from += IN_CHUNK_SIZE) {
+            List<Long> chunk = idList.subList(from, Math.min(from + IN_CHUNK_SIZE, idList.size()));
+            QueryContext.run(QueryClass.LIST, () -> {
+                jdbc.query(String.format(query, inPlaceholders(chunk.size())), handler, chunk.toArray());
+                return null;
+            });
+        }
+    }
+
+    // Фильмы с id вне диапазона int в битовые карты не попадают, как и в IdBitmap
+    private static void setFilm(BitSet films, long filmId) {
+        if (filmId >= 0 && filmId <= Integer.MAX_VALUE) {
+            films.set((int) filmId);
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.service.EntityVersions;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.review.ReviewLeaderboard;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Фоновое удаление пользователей и фильмов, помеченных удалёнными (filmorate.purge.async=true).
+ * Связанные строки удаляются пачками по batch-size, каждая пачка - отдельная короткая транзакция,
+ * поэтому удаление активного пользователя не держит долгих блокировок, а прерванная очистка
+ * продолжается со следующей пачки.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "filmorate.purge.async", havingValue = "true")
+public class PurgeWorker {
+    private static final String FIND_DELETED_USERS_QUERY = "SELECT id FROM users WHERE deleted = TRUE";
+    private static final String FIND_DELETED_FILMS_QUERY = "SELECT id FROM films WHERE deleted = TRUE";
+
+    // Лайки удаляются мимо LikesRepository, поэтому films.likes_count уменьшается на фильмы именно удалённых
+    // строк и в той же транзакции: повторный запуск после сбоя не вычитает лайки второй раз
+    private static final String DELETE_USER_LIKES_QUERY = "SELECT film_id FROM OLD TABLE " +
+            "(DELETE FROM likes WHERE id IN (SELECT id FROM likes WHERE user_id = ? LIMIT ?))";
+    private static final String UNCOUNT_LIKES_QUERY = "UPDATE films SET likes_count = likes_count - ? WHERE id = ?";
+    private static final String DELETE_USER_FRIENDS_QUERY = "DELETE FROM friends WHERE id IN " +
+            "(SELECT id FROM friends WHERE first_id = ? OR second_id = ? LIMIT ?)";
+    private static final String DELETE_USER_RATINGS_QUERY = "DELETE FROM reviews_ratings WHERE _ROWID_ IN " +
+            "(SELECT _ROWID_ FROM reviews_ratings WHERE user_id = ? LIMIT ?)";
+    private static final String DETACH_USER_EVENTS_QUERY = "UPDATE events SET user_id = NULL WHERE event_id IN " +
+            "(SELECT event_id FROM events WHERE user_id = ? LIMIT ?)";
+    private static final String FIND_USER_REVIEWS_QUERY = "SELECT id FROM reviews WHERE user_id = ? LIMIT ?";
+    private static final String DELETE_USER_QUERY = "DELETE FROM users WHERE id = ? AND deleted = TRUE";
+
+    private static final String DELETE_FILM_LIKES_QUERY = "DELETE FROM likes WHERE id IN " +
+            "(SELECT id FROM likes WHERE film_id = ? LIMIT ?)";
+    private static final String DELETE_FILM_GENRES_QUERY = "DELETE FROM film_genres WHERE film_id = ?";
+    private static final String DELETE_FILM_DIRECTORS_QUERY = "DELETE FROM film_directors WHERE film_id = ?";
+    private static final String FIND_FILM_REVIEWS_QUERY = "SELECT id FROM reviews WHERE film_id = ? LIMIT ?";
+    private static final String DELETE_FILM_QUERY = "DELETE FROM films WHERE id = ? AND deleted = TRUE";
+
+    private static final String DELETE_REVIEWS_RATINGS_QUERY = "DELETE FROM reviews_ratings WHERE review_id IN (%s)";
+    private static final String DELETE_REVIEWS_QUERY = "DELETE FROM reviews WHERE id IN (%s)";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactionTemplate;
+    private final ReviewLeaderboard reviewLeaderboard;
+    private final FilmCache filmCache;
+    private final EntityVersions entityVersions;
+
+    @Value("${filmorate.purge.batch-size:1000}")
+    private int batchSize;
+
+    @Scheduled(fixedDelayString = "${filmorate.purge.interval-ms:1000}")
+    public void purge() {
+        jdbc.queryForList(FIND_DELETED_USERS_QUERY, Long.class).forEach(this::purgeUser);
+        jdbc.queryForList(FIND_DELETED_FILMS_QUERY, Long.class).forEach(this::purgeFilm);
+    }
+
+    private void purgeUser(Long userId) {
+        log.debug("Purging user id = {}", userId);
+
+        deleteUserLikesInBatches(userId);
+        deleteInBatches(DELETE_USER_FRIENDS_QUERY, userId, userId);
+        deleteInBatches(DELETE_USER_RATINGS_QUERY, userId);
+        deleteReviewsInBatches(FIND_USER_REVIEWS_QUERY, userId);
+        deleteInBatches(DETACH_USER_EVENTS_QUERY, userId);
+        jdbc.update(DELETE_USER_QUERY, userId);
+        reviewLeaderboard.invalidateAll();
+        // Сохранённые счётчики лайков изменились: кэш фильмов, ETag и готовые ответы /films/popular устарели
+        filmCache.invalidateAll();
+        entityVersions.bumpAll(EntityVersions.Type.FILM);
+
+        log.info("User id = {} purged", userId);
+    }
+
+    private void purgeFilm(Long filmId) {
+        log.debug("Purging film id = {}", filmId);
+
+        deleteInBatches(DELETE_FILM_LIKES_QUERY, filmId);
+        deleteReviewsInBatches(FIND_FILM_REVIEWS_QUERY, filmId);
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbc.update(DELETE_FILM_GENRES_QUERY, filmId);
+            jdbc.update(DELETE_FILM_DIRECTORS_QUERY, filmId);
+            jdbc.update(DELETE_FILM_QUERY, filmId);
+        });
+
+        log.info("Film id = {} purged", filmId);
+    }
+
+    private void deleteUserLikesInBatches(Long userId) {
+        Integer deleted;
+        do {
+            deleted = transactionTemplate.execute(status -> {
+                List<Long> filmIds = jdbc.queryForList(DELETE_USER_LIKES_QUERY, Long.class, userId, batchSize);
+                Map<Long, Long> likesByFilm = filmIds.stream()
+                        .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+                jdbc.batchUpdate(UNCOUNT_LIKES_QUERY, likesByFilm.entrySet().stream()
+                        .map(entry -> new Object[]{entry.getValue(), entry.getKey()})
+                        .toList());
+                return filmIds.size();
+            });
+        } while (deleted != null && deleted == batchSize);
+    }
+
+    // Последний параметр запроса - размер пачки. Повторяем, пока пачка заполняется целиком
+    private void deleteInBatches(String query, Object... params) {
+        Object[] args = new Object[params.length + 1];
+        System.arraycopy(params, 0, args, 0, params.length);
+        args[params.length] = batchSize;
+
+        Integer deleted;
+        do {
+            deleted = transactionTemplate.execute(status -> jdbc.update(query, args));
+        } while (deleted != null && deleted == batchSize);
+    }
+
+    private void deleteReviewsInBatches(String findQuery, Long ownerId) {
+        Integer found;
+        do {
+            found = transactionTemplate.execute(status -> {
+                List<Long> reviewIds = jdbc.queryForList(findQuery, Long.class, ownerId, batchSize);
+                if (!reviewIds.isEmpty()) {
+                    String placeholders = BaseDbStorage.inPlaceholders(reviewIds.size());
+                    jdbc.update(String.format(DELETE_REVIEWS_RATINGS_QUERY, placeholders), reviewIds.toArray());
+                    jdbc.update(String.format(DELETE_REVIEWS_QUERY, placeholders), reviewIds.toArray());
+                }
+                return reviewIds.size();
+            });
+        } while (found != null && found == batchSize);
+    }
+}
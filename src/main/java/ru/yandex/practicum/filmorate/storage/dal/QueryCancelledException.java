@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import org.springframework.dao.TransientDataAccessException;
+
+public class QueryCancelledException extends TransientDataAccessException {
+    public QueryCancelledException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+/**
+ * Класс запроса определяет его тайм-аут (filmorate.db.query-timeout.*): выборка по ключу, выборка списка
+ * и тяжёлые аналитические запросы (популярное, поиск, рекомендации).
+ */
+public enum QueryClass {
+    POINT, LIST, ANALYTIC
+}
@@ -0,0 +1,83 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Supplier;
+
+/**
+ * Состояние текущего потока для GuardedJdbcTemplate: класс выполняемого запроса и отмена запросов
+ * HTTP-запроса, который обслуживает поток.
+ */
+public final class QueryContext {
+    private static final ThreadLocal<QueryClass> CURRENT_CLASS = new ThreadLocal<>();
+    private static final ThreadLocal<Cancellation> CURRENT_CANCELLATION = new ThreadLocal<>();
+
+    private QueryContext() {
+    }
+
+    public static <T> T run(QueryClass queryClass, Supplier<T> query) {
+        QueryClass previous = CURRENT_CLASS.get();
+        // Вложенный запрос внутри аналитического остаётся аналитическим
+        if (previous != QueryClass.ANALYTIC) {
+            CURRENT_CLASS.set(queryClass);
+        }
+        try {
+            return query.get();
+        } finally {
+            CURRENT_CLASS.set(previous);
+        }
+    }
+
+    public static QueryClass currentClass() {
+        QueryClass queryClass = CURRENT_CLASS.get();
+        return queryClass == null ? QueryClass.LIST : queryClass;
+    }
+
+    public static void bind(Cancellation cancellation) {
+        CURRENT_CANCELLATION.set(cancellation);
+    }
+
+    public static void unbind() {
+        CURRENT_CANCELLATION.remove();
+    }
+
+    public static Cancellation currentCancellation() {
+        return CURRENT_CANCELLATION.get();
+    }
+
+    /**
+     * Отмена запросов одного HTTP-запроса. Поток выполняет один JDBC-запрос за раз, поэтому хранится
+     * только последний начатый.
+     */
+    public static class Cancellation {
+        private volatile Statement current;
+        private volatile boolean cancelled;
+
+        // После отмены новые запросы этого HTTP-запроса не начинаются
+        void register(Statement statement) throws SQLException {
+            if (cancelled) {
+                throw new SQLException("Statement was canceled", "57014", 57014);
+            }
+            current = statement;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Возвращает true, если был отменён выполняющийся запрос
+        public boolean cancel() {
+            cancelled = true;
+            Statement statement = current;
+            try {
+                if (statement != null && !statement.isClosed()) {
+                    statement.cancel();
+                    return true;
+                }
+            } catch (SQLException ignore) {
+                // Запрос успел завершиться
+            }
+            return false;
+        }
+    }
+}
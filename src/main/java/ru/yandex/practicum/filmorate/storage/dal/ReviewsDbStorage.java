@@ -4,10 +4,18 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.model.ReviewCursor;
+import ru.yandex.practicum.filmorate.model.ReviewRating;
+import ru.yandex.practicum.filmorate.storage.review.ReviewRatingsCache;
 import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Repository("reviewsDbStorage")
@@ -15,25 +23,30 @@ import java.util.Optional;
 public class ReviewsDbStorage extends BaseDbStorage<Review> implements ReviewStorage {
     private final UserDbStorage userDbStorage;
     private final FilmDbStorage filmDbStorage;
+    private final ReviewRatingsCache ratingsCache;
 
     private static final String INSERT_QUERY = "INSERT INTO reviews(content, is_positive, user_id, film_id, useful) " +
             "VALUES (?, ?, ?, ?, ?)";
     private static final String UPDATE_QUERY = "UPDATE reviews SET content = ?, is_positive = ?, " +
             "user_id = ?, film_id = ?, useful = ? WHERE id = ?";
     private static final String FIND_BY_ID_QUERY = "SELECT * FROM reviews WHERE id = ?";
+    // Новое значение возвращает тот же запрос, что его меняет: отдельного чтения не нужно
+    private static final String UPDATE_USEFUL_QUERY = "SELECT useful FROM FINAL TABLE " +
+            "(UPDATE reviews SET useful = useful + ? WHERE id = ?)";
     private static final String DELETE_QUERY = "DELETE FROM reviews WHERE id = ?";
-    private static final String FIND_ALL_QUERY = "SELECT * FROM reviews ORDER BY useful DESC";
+    private static final String FIND_ALL_QUERY = "SELECT * FROM reviews ORDER BY useful DESC, id";
     private static final String FIND_BY_FILM_ID_QUERY = "SELECT *" +
             " FROM reviews" +
             " WHERE film_id = ?" +
-            " ORDER BY useful DESC" +
+            " ORDER BY useful DESC, id" +
             " LIMIT ?";
-    private static final String FIND_USER_LIKE_QUERY = "SELECT COUNT(*)" +
+    // Условие по курсору записано так, чтобы первая его часть (useful <= ?) была диапазоном по индексу
+    private static final String AFTER_CURSOR_CONDITION = "useful <= ? AND (useful < ? OR id > ?)";
+    private static final String ORDER_BY_USEFUL_QUERY = " ORDER BY useful DESC, id LIMIT ?";
+    private static final String FIND_RATINGS_QUERY = "SELECT user_id, status FROM reviews_ratings WHERE review_id = ?";
+    private static final String FIND_USER_RATING_QUERY = "SELECT status" +
             " FROM reviews_ratings" +
-            " WHERE review_id = ? AND user_id = ? AND status = true";
-    private static final String FIND_USER_DISLIKE_QUERY = "SELECT COUNT(*) " +
-            "FROM reviews_ratings " +
-            "WHERE review_id = ? AND user_id = ? AND status = false";
+            " WHERE review_id = ? AND user_id = ?";
     private static final String INSERT_LIKE_QUERY = "INSERT INTO reviews_ratings (review_id, user_id, status) " +
             "VALUES (?, ?, true)";
     private static final String INSERT_DISLIKE_QUERY = "INSERT INTO reviews_ratings (review_id, user_id, status) " +
@@ -42,6 +55,12 @@ public class ReviewsDbStorage extends BaseDbStorage<Review> implements ReviewSto
             " WHERE review_id = ?" +
             " AND user_id = ?" +
             " AND status = true";
+    private static final String DELETE_RATINGS_BY_FILM_QUERY = "DELETE FROM reviews_ratings " +
+            "WHERE review_id IN (SELECT id FROM reviews WHERE film_id = ?)";
+    private static final String DELETE_BY_FILM_QUERY = "DELETE FROM reviews WHERE film_id = ?";
+    private static final String DELETE_RATINGS_BY_USER_QUERY = "DELETE FROM reviews_ratings " +
+            "WHERE user_id = ? OR review_id IN (SELECT id FROM reviews WHERE user_id = ?)";
+    private static final String DELETE_BY_USER_QUERY = "DELETE FROM reviews WHERE user_id = ?";
     private static final String DELETE_DISLIKE_QUERY = "DELETE FROM reviews_ratings " +
             "WHERE review_id = ?" +
             " AND user_id = ?" +
@@ -50,10 +69,12 @@ public class ReviewsDbStorage extends BaseDbStorage<Review> implements ReviewSto
     public ReviewsDbStorage(JdbcTemplate jdbc,
                             RowMapper<Review> mapper,
                             UserDbStorage userDbStorage,
-                            FilmDbStorage filmDbStorage) {
+                            FilmDbStorage filmDbStorage,
+                            ReviewRatingsCache ratingsCache) {
         super(jdbc, mapper);
         this.userDbStorage = userDbStorage;
         this.filmDbStorage = filmDbStorage;
+        this.ratingsCache = ratingsCache;
     }
 
     @Override
@@ -94,7 +115,11 @@ public class ReviewsDbStorage extends BaseDbStorage<Review> implements ReviewSto
     public boolean deleteById(Long id) {
         log.trace("Start delete in reviewDb");
 
-        return delete(DELETE_QUERY, id);
+        boolean deleted = delete(DELETE_QUERY, id);
+        if (deleted) {
+            ratingsCache.invalidate(id);
+        }
+        return deleted;
     }
 
     @Override
@@ -118,11 +143,46 @@ public class ReviewsDbStorage extends BaseDbStorage<Review> implements ReviewSto
         return findMany(FIND_BY_FILM_ID_QUERY, filmId, count);
     }
 
+    @Override
+    public Collection<Review> findPage(Long filmId, ReviewCursor after, int count) {
+        log.trace("Start findPage in reviewDb. filmId = {}, count = {}", filmId, count);
+
+        List<String> conditions = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        if (filmId != null) {
+            conditions.add("film_id = ?");
+            params.add(filmId);
+        }
+        if (after != null) {
+            conditions.add(AFTER_CURSOR_CONDITION);
+            params.add(after.getUseful());
+            params.add(after.getUseful());
+            params.add(after.getReviewId());
+        }
+        params.add(count);
+
+        String where = conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+        return findMany("SELECT * FROM reviews" + where + ORDER_BY_USEFUL_QUERY, params.toArray());
+    }
+
+    @Override
+    public int updateUseful(Long id, int delta) {
+        log.trace("Start updateUseful in reviewDb");
+
+        List<Integer> useful = QueryContext.run(QueryClass.POINT,
+                () -> jdbc.queryForList(UPDATE_USEFUL_QUERY, Integer.class, delta, id));
+        if (useful.isEmpty()) {
+            throw new NotFoundException("Не удалось обновить данные");
+        }
+        return useful.getFirst();
+    }
+
     @Override
     public void putLike(Long id, Long userId) {
         log.trace("Start putLike in reviewDb");
 
         update(INSERT_LIKE_QUERY, id, userId);
+        ratingsCache.set(id, userId, ReviewRating.LIKE);
 
         log.info("Like added");
     }
@@ -132,6 +192,7 @@ public class ReviewsDbStorage extends BaseDbStorage<Review> implements ReviewSto
         log.trace("Start putDislike in reviewDb");
 
         update(INSERT_DISLIKE_QUERY, id, userId);
+        ratingsCache.set(id, userId, ReviewRating.DISLIKE);
 
         log.info("Dislike added");
     }
@@ -140,36 +201,32 @@ public class ReviewsDbStorage extends BaseDbStorage<Review> implements ReviewSto
     public boolean deleteLike(Long id, Long userId) {
         log.trace("Start deleteLike in reviewDb");
 
-        return delete(DELETE_LIKE_QUERY, id, userId);
+        boolean deleted = delete(DELETE_LIKE_QUERY, id, userId);
+        ratingsCache.set(id, userId, ReviewRating.NONE);
+        return deleted;
     }
 
     @Override
     public boolean deleteDislike(Long id, Long userId) {
         log.trace("Start deleteDislike in reviewDb");
 
-        return delete(DELETE_DISLIKE_QUERY, id, userId);
+        boolean deleted = delete(DELETE_DISLIKE_QUERY, id, userId);
+        ratingsCache.set(id, userId, ReviewRating.NONE);
+        return deleted;
     }
 
     @Override
     public void deleteReviewByFilmConnection(Long filmId) {
-        jdbc.queryForList("SELECT id FROM reviews WHERE film_id = ?", Long.class, filmId)
-                .forEach((id) -> {
-                    delete("DELETE FROM reviews_ratings WHERE review_id = ?", id);
-
-                    this.deleteById(id);
-                });
+        delete(DELETE_RATINGS_BY_FILM_QUERY, filmId);
+        delete(DELETE_BY_FILM_QUERY, filmId);
+        ratingsCache.invalidateAll();
     }
 
     @Override
     public void deleteReviewByUserConnection(Long userId) {
-        delete("DELETE FROM reviews_ratings WHERE user_id = ?", userId);
-
-        jdbc.queryForList("SELECT id FROM reviews WHERE user_id = ?", Long.class, userId)
-                .forEach((id) -> {
-                    delete("DELETE FROM reviews_ratings WHERE review_id = ?", id);
-
-                    this.deleteById(id);
-                });
+        delete(DELETE_RATINGS_BY_USER_QUERY, userId, userId);
+        delete(DELETE_BY_USER_QUERY, userId);
+        ratingsCache.invalidateAll();
     }
 
     @Override
@@ -183,13 +240,32 @@ public class ReviewsDbStorage extends BaseDbStorage<Review> implements ReviewSto
     public boolean isUserLikeReview(Long id, Long userId) {
         log.trace("Start isUserLikeReview in reviewDb");
 
-        return findCount(FIND_USER_LIKE_QUERY, id, userId) == 1;
+        return findUserRating(id, userId) == ReviewRating.LIKE;
     }
 
     @Override
     public boolean isUserDislikeReview(Long id, Long userId) {
         log.trace("Start isUserDislikeReview in reviewDb");
 
-        return findCount(FIND_USER_DISLIKE_QUERY, id, userId) == 1;
+        return findUserRating(id, userId) == ReviewRating.DISLIKE;
+    }
+
+    @Override
+    public ReviewRating findUserRating(Long id, Long userId) {
+        log.trace("Start findUserRating in reviewDb");
+
+        return ratingsCache.get(id, userId, this::findRatings)
+                .orElseGet(() -> jdbc.query(FIND_USER_RATING_QUERY, rs -> rs.next()
+                        ? (rs.getBoolean("status") ? ReviewRating.LIKE : ReviewRating.DISLIKE)
+                        : ReviewRating.NONE, id, userId));
+    }
+
+    private Map<Long, Boolean> findRatings(Long reviewId) {
+        Map<Long, Boolean> ratings = new HashMap<>();
+        jdbc.query(FIND_RATINGS_QUERY,
+                rs -> {
+                    ratings.put(rs.getLong("user_id"), rs.getBoolean("status"));
+                }, reviewId);
+        return ratings;
     }
 }
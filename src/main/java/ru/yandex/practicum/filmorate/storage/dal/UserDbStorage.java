@@ -1,25 +1,84 @@
 package ru.yandex.practicum.filmorate.storage.dal;
 
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
+import ru.yandex.practicum.filmorate.storage.film.FilmCache;
+import ru.yandex.practicum.filmorate.storage.film.TrendingCounters;
+import ru.yandex.practicum.filmorate.storage.review.ReviewLeaderboard;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Repository("userDbStorage")
 public class UserDbStorage extends BaseDbStorage<User> implements UserStorage {
     private static final String INSERT_QUERY = "INSERT INTO users (email, login, name, birthday)" +
             "VALUES (?, ?, ?, ?)";
     private static final String UPDATE_QUERY = "UPDATE users SET email = ?, login = ?, name = ?, birthday = ? WHERE id = ?";
-    private static final String FIND_ALL_QUERY = "SELECT * FROM users";
-    private static final String FIND_BY_ID_QUERY = "SELECT * FROM users WHERE id = ?";
+    private static final String FIND_ALL_QUERY = "SELECT * FROM users WHERE deleted = FALSE";
+    private static final String FIND_BY_ID_QUERY = "SELECT * FROM users WHERE id = ? AND deleted = FALSE";
+    private static final String FIND_BY_IDS_QUERY = "SELECT * FROM users WHERE deleted = FALSE AND id IN (%s)";
+    private static final String FIND_FRIENDS_QUERY = "SELECT u.* FROM friends fr " +
+            "JOIN users u ON u.id = fr.second_id AND u.deleted = FALSE " +
+            "WHERE fr.first_id = ? ORDER BY u.id";
+    // Пересечение списков друзей делает база: обе стороны читаются по индексу (first_id, second_id)
+    private static final String FIND_COMMON_FRIENDS_QUERY = "SELECT u.* FROM friends f1 " +
+            "JOIN friends f2 ON f2.second_id = f1.second_id AND f2.first_id = ? " +
+            "JOIN users u ON u.id = f1.second_id AND u.deleted = FALSE " +
+            "WHERE f1.first_id = ? ORDER BY u.id";
+    private static final String IS_FRIENDS_QUERY = "SELECT COUNT(DISTINCT first_id) FROM friends " +
+            "WHERE (first_id = ? AND second_id = ?) OR (first_id = ? AND second_id = ?)";
+    private static final String CONTAINS_QUERY = "SELECT COUNT(*) FROM users WHERE id = ? AND deleted = FALSE";
     private static final String DELETE_BY_ID_QUERY = "DELETE FROM users WHERE id = ?";
+    private static final String MARK_DELETED_QUERY = "UPDATE users SET deleted = TRUE WHERE id = ? AND deleted = FALSE";
+    // Лайки удаляются каскадно, мимо LikesRepository, поэтому films.likes_count уменьшается отдельно
+    private static final String UNCOUNT_USER_LIKES_QUERY = "UPDATE films f SET likes_count = likes_count - " +
+            "(SELECT COUNT(*) FROM likes l WHERE l.film_id = f.id AND l.user_id = ?) " +
+            "WHERE f.id IN (SELECT film_id FROM likes WHERE user_id = ?)";
 
-    public UserDbStorage(JdbcTemplate jdbc, RowMapper<User> mapper) {
+    private final FriendsRepository friendsRepository;
+    private final FilmCache filmCache;
+    private final ReviewLeaderboard reviewLeaderboard;
+    private final TrendingCounters trendingCounters;
+    private final FriendGraph friendGraph;
+    private final UserRecommendationJob userRecommendationJob;
+    private final boolean asyncPurge;
+    private final IdBitmap userIds = new IdBitmap("users");
+
+    public UserDbStorage(JdbcTemplate jdbc,
+                         RowMapper<User> mapper,
+                         FriendsRepository friendsRepository,
+                         FilmCache filmCache,
+                         ReviewLeaderboard reviewLeaderboard,
+                         TrendingCounters trendingCounters,
+                         FriendGraph friendGraph,
+                         UserRecommendationJob userRecommendationJob,
+                         @Value("${filmorate.purge.async:false}") boolean asyncPurge) {
         super(jdbc, mapper);
+        this.friendsRepository = friendsRepository;
+        this.filmCache = filmCache;
+        this.reviewLeaderboard = reviewLeaderboard;
+        this.trendingCounters = trendingCounters;
+        this.friendGraph = friendGraph;
+        this.userRecommendationJob = userRecommendationJob;
+        this.asyncPurge = asyncPurge;
+    }
+
+    @PostConstruct
+    public void loadIds() {
+        userIds.load(jdbc);
     }
 
     @Override
@@ -31,6 +90,7 @@ public class UserDbStorage extends BaseDbStorage<User> implements UserStorage {
                 user.getBirthday());
 
         user.setId(id);
+        userIds.add(id);
 
         return user;
     }
@@ -49,21 +109,103 @@ public class UserDbStorage extends BaseDbStorage<User> implements UserStorage {
 
     @Override
     public Collection<User> findAll() {
-        return findMany(FIND_ALL_QUERY);
+        return findAll(UserField.ALL);
+    }
+
+    @Override
+    public Collection<User> findAll(Set<UserField> fields) {
+        return hydrate(findMany(FIND_ALL_QUERY), fields);
     }
 
     @Override
     public Optional<User> findById(Long id) {
-        return findOne(FIND_BY_ID_QUERY, id);
+        return findById(id, UserField.ALL);
+    }
+
+    @Override
+    public Optional<User> findById(Long id, Set<UserField> fields) {
+        return findOne(FIND_BY_ID_QUERY, id)
+                .map(user -> hydrate(List.of(user), fields).getFirst());
+    }
+
+    @Override
+    public List<User> findByIds(Collection<Long> ids, Set<UserField> fields) {
+        List<Long> idList = List.copyOf(ids);
+        Map<Long, User> found = new HashMap<>();
+        for (int from = 0; from < idList.size(); from += IN_CHUNK_SIZE) {
+            List<Long> chunk = idList.subList(from, Math.min(from + IN_CHUNK_SIZE, idList.size()));
+            findMany(String.format(FIND_BY_IDS_QUERY, inPlaceholders(chunk.size())), chunk.toArray())
+                    .forEach(user -> found.put(user.getId(), user));
+        }
+
+        List<User> users = idList.stream()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return hydrate(users, fields);
+    }
+
+    @Override
+    public List<User> findFriends(Long id, Set<UserField> fields) {
+        return hydrate(findMany(FIND_FRIENDS_QUERY, id), fields);
+    }
+
+    @Override
+    public List<User> findCommonFriends(Long firstId, Long secondId, Set<UserField> fields) {
+        return hydrate(findMany(FIND_COMMON_FRIENDS_QUERY, secondId, firstId), fields);
+    }
+
+    @Override
+    public boolean isFriends(Long firstId, Long secondId) {
+        return findCount(IS_FRIENDS_QUERY, firstId, secondId, secondId, firstId) == 2;
     }
 
     @Override
     public boolean containsUser(Long id) {
-        return findOne(FIND_BY_ID_QUERY, id).isPresent();
+        if (id == null) {
+            return false;
+        }
+        if (userIds.isTracked(id)) {
+            return userIds.contains(id);
+        }
+        return findCount(CONTAINS_QUERY, id) > 0;
     }
 
     @Override
+    // В асинхронном режиме пользователь только помечается удалённым, связанные строки удаляет PurgeWorker
     public boolean deleteById(Long userId) {
-        return delete(DELETE_BY_ID_QUERY, userId);
+        List<long[]> recentLikes = trendingCounters.findRecentLikes(userId);
+        if (!asyncPurge) {
+            QueryContext.run(QueryClass.POINT, () -> jdbc.update(UNCOUNT_USER_LIKES_QUERY, userId, userId));
+        }
+        boolean deleted = asyncPurge
+                ? delete(MARK_DELETED_QUERY, userId)
+                : delete(DELETE_BY_ID_QUERY, userId);
+        if (deleted) {
+            userIds.remove(userId);
+            // Лайки пользователя удаляются каскадно, счётчики лайков в кэше устарели
+            filmCache.invalidateAll();
+            // Отзывы пользователя удаляются вместе с ним
+            reviewLeaderboard.invalidateAll();
+            trendingCounters.userRemoved(recentLikes);
+            friendGraph.userRemoved(userId);
+            userRecommendationJob.changed(userId);
+        }
+        return deleted;
+    }
+
+    // Друзья догружаются только если они запрошены, одним запросом на пачку пользователей
+    private List<User> hydrate(List<User> users, Set<UserField> fields) {
+        if (users.isEmpty() || !fields.contains(UserField.FRIENDS)) {
+            return users;
+        }
+
+        for (int from = 0; from < users.size(); from += IN_CHUNK_SIZE) {
+            List<User> chunk = users.subList(from, Math.min(from + IN_CHUNK_SIZE, users.size()));
+            Map<Long, List<Long>> friends = friendsRepository.findAllFriends(chunk.stream().map(User::getId).toList());
+            chunk.forEach(user -> user.getFriends().addAll(friends.getOrDefault(user.getId(), List.of())));
+        }
+
+        return users;
     }
 }
@@ -0,0 +1,196 @@
+package ru.yandex.practicum.filmorate.storage.dal;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Пересчёт таблицы user_recommendations: для пользователя хранятся фильмы наиболее похожего пользователя
+ * (по числу совместных лайков), которые он сам ещё не лайкал. Если похожего пользователя нет, список заполняется
+ * популярными фильмами. Первый запуск считает всех пользователей с лайками, следующие - только тех,
+ * чьи лайки изменились, и тех, чей список построен по изменившемуся или удалённому пользователю.
+ * Раз в filmorate.recommendations.full-refresh-ms все списки пересчитываются заново: так учитывается
+ * появление нового, более похожего пользователя. Пользователи делятся на пачки, пачки считаются параллельно
+ * в filmorate.recommendations.parallelism потоков (BatchRunner).
+ */
+@Slf4j
+@Component
+public class UserRecommendationJob {
+    private static final String FIND_USERS_WITH_LIKES_QUERY = "SELECT DISTINCT l.user_id FROM likes l " +
+            "JOIN users u ON u.id = l.user_id AND u.deleted = FALSE ORDER BY l.user_id";
+    private static final String FIND_DEPENDENT_USERS_QUERY = "SELECT DISTINCT user_id FROM user_recommendations " +
+            "WHERE similar_user_id IN (%s)";
+    private static final String IS_ACTIVE_QUERY = "SELECT COUNT(*) FROM users WHERE id = ? AND deleted = FALSE";
+    private static final String DELETE_OF_DELETED_USERS_QUERY = "DELETE FROM user_recommendations " +
+            "WHERE user_id IN (SELECT id FROM users WHERE deleted = TRUE)";
+    private static final String FIND_POPULAR_QUERY = "SELECT id FROM films WHERE deleted = FALSE " +
+            "ORDER BY likes_count DESC, id LIMIT ?";
+    private static final String FIND_SIMILAR_USER_QUERY = "SELECT l2.user_id FROM likes l1 " +
+            "JOIN likes l2 ON l2.film_id = l1.film_id AND l2.user_id <> l1.user_id " +
+            "JOIN users u ON u.id = l2.user_id AND u.deleted = FALSE " +
+            "WHERE l1.user_id = ? " +
+            "GROUP BY l2.user_id ORDER BY COUNT(*) DESC, l2.user_id LIMIT 1";
+    private static final String FIND_FILMS_OF_SIMILAR_QUERY = "SELECT f.id FROM likes l " +
+            "JOIN films f ON f.id = l.film_id AND f.deleted = FALSE " +
+            "WHERE l.user_id = ? AND NOT EXISTS (SELECT 1 FROM likes ul WHERE ul.user_id = ? AND ul.film_id = f.id) " +
+            "ORDER BY f.release_date DESC, f.id LIMIT ?";
+    private static final String FIND_POPULAR_NOT_LIKED_QUERY = "SELECT f.id FROM films f " +
+            "WHERE f.deleted = FALSE AND NOT EXISTS (SELECT 1 FROM likes ul WHERE ul.user_id = ? AND ul.film_id = f.id) " +
+            "ORDER BY f.likes_count DESC, f.id LIMIT ?";
+    private static final String MERGE_QUERY = "MERGE INTO user_recommendations " +
+            "(user_id, film_id, sort_order, similar_user_id) KEY (user_id, film_id) VALUES (?, ?, ?, ?)";
+    private static final String DELETE_ALL_QUERY = "DELETE FROM user_recommendations WHERE user_id = ?";
+    private static final String DELETE_STALE_QUERY = "DELETE FROM user_recommendations WHERE user_id = ? " +
+            "AND film_id NOT IN (%s)";
+
+    private final JdbcTemplate jdbc;
+    private final int size;
+    private final long fullRefreshMs;
+    private final BatchRunner batches;
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+    // Пользователи, чьи лайки изменились или которые удалены: пересчитываются списки, построенные по ним
+    private final Set<Long> changedUsers = ConcurrentHashMap.newKeySet();
+    private volatile List<Long> popularFilmIds;
+    private volatile boolean computed;
+    private long fullRefreshedAt;
+
+    public UserRecommendationJob(JdbcTemplate jdbc,
+                                 @Value("${filmorate.recommendations.size:10}") int size,
+                                 @Value("${filmorate.recommendations.batch-size:500}") int batchSize,
+                                 @Value("${filmorate.recommendations.parallelism:4}") int parallelism,
+                                 @Value("${filmorate.recommendations.full-refresh-ms:3600000}") long fullRefreshMs) {
+        this.jdbc = jdbc;
+        this.size = size;
+        this.fullRefreshMs = fullRefreshMs;
+        this.batches = new BatchRunner("User recommendations", batchSize, parallelism);
+    }
+
+    // Лайк или удаление меняет список самого пользователя и списки тех, кому он оказался самым похожим
+    public void changed(Long userId) {
+        AfterCommit.run(() -> markChanged(userId));
+    }
+
+    // Популярные фильмы для пользователей без посчитанного списка, обновляются при каждом запуске
+    public List<Long> popularFilmIds() {
+        List<Long> popular = popularFilmIds;
+        if (popular == null) {
+            popular = loadPopular();
+        }
+        return popular;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Первый полный пересчёт запускается сразу после старта; у планировщика несколько потоков
+    // (spring.task.scheduling.pool.size), поэтому сброс лайков и очистка его не ждут
+    @Scheduled(initialDelayString = "${filmorate.recommendations.initial-delay-ms:0}",
+            fixedDelayString = "${filmorate.recommendations.refresh-ms:60000}")
+    public synchronized void refresh() {
+        long startedAt = System.currentTimeMillis();
+        boolean full = !computed || startedAt - fullRefreshedAt >= fullRefreshMs;
+        loadPopular();
+        List<Long> userIds = full ? all() : drainDirty();
+        if (userIds.isEmpty()) {
+            finish(full, startedAt);
+            return;
+        }
+
+        if (!batches.run(userIds, this::recompute)) {
+            dirtyUsers.addAll(userIds);
+            return;
+        }
+
+        finish(full, startedAt);
+        log.info("User recommendations refreshed for {} users in {} ms", userIds.size(),
+                System.currentTimeMillis() - startedAt);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batches.shutdown();
+    }
+
+    private List<Long> loadPopular() {
+        List<Long> popular = List.copyOf(jdbc.queryForList(FIND_POPULAR_QUERY, Long.class, size));
+        popularFilmIds = popular;
+        return popular;
+    }
+
+    private void markChanged(Long userId) {
+        changedUsers.add(userId);
+        dirtyUsers.add(userId);
+    }
+
+    private void finish(boolean full, long startedAt) {
+        computed = true;
+        if (full) {
+            fullRefreshedAt = startedAt;
+        }
+    }
+
+    private List<Long> all() {
+        changedUsers.clear();
+        dirtyUsers.clear();
+        jdbc.update(DELETE_OF_DELETED_USERS_QUERY);
+        return jdbc.queryForList(FIND_USERS_WITH_LIKES_QUERY, Long.class);
+    }
+
+    private List<Long> drainDirty() {
+        List<Long> changed = new ArrayList<>();
+        for (Long userId : List.copyOf(changedUsers)) {
+            changedUsers.remove(userId);
+            changed.add(userId);
+        }
+        for (int from = 0; from < changed.size(); from += BaseDbStorage.IN_CHUNK_SIZE) {
+            List<Long> chunk = changed.subList(from, Math.min(from + BaseDbStorage.IN_CHUNK_SIZE, changed.size()));
+            dirtyUsers.addAll(jdbc.queryForList(String.format(FIND_DEPENDENT_USERS_QUERY,
+                    BaseDbStorage.inPlaceholders(chunk.size())), Long.class, chunk.toArray()));
+        }
+
+        List<Long> users = new ArrayList<>();
+        for (Long userId : List.copyOf(dirtyUsers)) {
+            dirtyUsers.remove(userId);
+            users.add(userId);
+        }
+        return users;
+    }
+
+    private void recompute(Long userId) {
+        // Список удалённого пользователя просто убирается
+        if (jdbc.queryForObject(IS_ACTIVE_QUERY, Long.class, userId) == 0) {
+            jdbc.update(DELETE_ALL_QUERY, userId);
+            return;
+        }
+
+        Long similarUserId = jdbc.queryForList(FIND_SIMILAR_USER_QUERY, Long.class, userId).stream()
+                .findFirst()
+                .orElse(null);
+        List<Long> filmIds = similarUserId == null
+                ? List.of()
+                : jdbc.queryForList(FIND_FILMS_OF_SIMILAR_QUERY, Long.class, similarUserId, userId, size);
+        if (filmIds.isEmpty()) {
+            similarUserId = null;
+            filmIds = jdbc.queryForList(FIND_POPULAR_NOT_LIKED_QUERY, Long.class, userId, size);
+        }
+        if (filmIds.isEmpty()) {
+            jdbc.update(DELETE_ALL_QUERY, userId);
+            return;
+        }
+
+        List<Object[]> rows = new ArrayList<>();
+        for (int order = 0; order < filmIds.size(); order++) {
+            rows.add(new Object[]{userId, filmIds.get(order), order, similarUserId});
+        }
+        BaseDbStorage.replaceRows(jdbc, MERGE_QUERY, rows, DELETE_STALE_QUERY, userId, filmIds);
+    }
+}
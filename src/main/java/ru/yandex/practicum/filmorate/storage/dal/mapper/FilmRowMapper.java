@@ -1,46 +1,43 @@
 package ru.yandex.practicum.filmorate.storage.dal.mapper;
 
-import lombok.RequiredArgsConstructor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Component;
-import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
-import ru.yandex.practicum.filmorate.storage.dal.GenresRepository;
-import ru.yandex.practicum.filmorate.storage.dal.LikesRepository;
-import ru.yandex.practicum.filmorate.storage.dal.MPAsRepository;
-import ru.yandex.practicum.filmorate.storage.director.FilmDirectorStorage;
+import ru.yandex.practicum.filmorate.model.MPA;
+import ru.yandex.practicum.filmorate.storage.film.LikeCounters;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 
+/**
+ * Маппит только колонки таблицы films. MPA, жанры и режиссёры догружаются в FilmDbStorage пачкой.
+ * К likes_count добавляются лайки, ещё не записанные в базу.
+ */
 @Component
-@RequiredArgsConstructor
 public class FilmRowMapper implements RowMapper<Film> {
-    private final LikesRepository likesRepository;
-    private final MPAsRepository mpasRepository;
-    private final GenresRepository genresRepository;
-    private final FilmDirectorStorage filmDirectorStorage;
+    private final LikeCounters likeCounters;
+
+    public FilmRowMapper(LikeCounters likeCounters) {
+        this.likeCounters = likeCounters;
+    }
 
     @Override
     public Film mapRow(ResultSet rs, int rowNum) throws SQLException {
-        Long filmId = (long) rs.getInt("id");
+        long mpaId = rs.getLong("MPA_id");
+        MPA mpa = rs.wasNull() ? null : MPA.builder().id(mpaId).build();
+
+        long id = rs.getLong("id");
+        long storedLikes = rs.getLong("likes_count");
 
-        Film film = Film.builder()
-                .id(filmId)
+        return Film.builder()
+                .id(id)
                 .name(rs.getString("name"))
                 .description(rs.getString("description"))
                 .releaseDate(rs.getDate("release_date").toLocalDate())
                 .duration((long) rs.getInt("duration"))
-                .mpa(mpasRepository.findMPA(rs.getLong("MPA_id")).orElse(null))
+                .likesCount(storedLikes + likeCounters.pending(id))
+                .storedLikesCount(storedLikes)
+                .mpa(mpa)
                 .build();
-
-        film.getLikes().addAll(likesRepository.findAllLikesByFilmId(filmId));
-        film.getGenres().addAll(genresRepository.findFilmGenres(filmId));
-        List<Director> directors = filmDirectorStorage.getDirectorsByFilmId(filmId);
-        film.getDirectors().addAll(directors != null ? directors : new ArrayList<>());
-
-        return film;
     }
 }
@@ -2,7 +2,9 @@ package ru.yandex.practicum.filmorate.storage.director;
 
 import ru.yandex.practicum.filmorate.model.Director;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface FilmDirectorStorage {
 
@@ -12,6 +14,8 @@ public interface FilmDirectorStorage {
 
     List<Director> getDirectorsByFilmId(long filmId);
 
+    Map<Long, List<Director>> getDirectorsByFilmIds(Collection<Long> filmIds);
+
     List<Long> getFilmsByDirector(long directorId);
 
     void replaceDirectorsForFilm(long filmId, List<Director> directors);
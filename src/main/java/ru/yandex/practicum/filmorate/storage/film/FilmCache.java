@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MPA;
+import ru.yandex.practicum.filmorate.storage.dal.AfterCommit;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Кэш полностью загруженных фильмов по id. Ограничен суммарным примерным размером фильмов в байтах,
+ * вытеснение - W-TinyLFU (Caffeine). Наружу всегда отдаются копии, чтобы изменения в сервисах
+ * не попадали в кэш.
+ */
+@Slf4j
+@Component
+public class FilmCache {
+    private final Cache<Long, Film> cache;
+
+    public FilmCache(MeterRegistry meterRegistry,
+                     @Value("${filmorate.cache.films.max-weight:67108864}") long maxWeight) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher(FilmCache::weigh)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "films");
+    }
+
+    public Optional<Film> get(Long id, Function<Long, Optional<Film>> loader) {
+        // Внутри пишущей транзакции могут быть незакоммиченные изменения, их нельзя класть в кэш
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return loader.apply(id);
+        }
+
+        Film film = cache.get(id, key -> loader.apply(key).orElse(null));
+        return Optional.ofNullable(film).map(FilmCache::copy);
+    }
+
+    public void invalidate(Long id) {
+        cache.invalidate(id);
+        // Повторная инвалидация после завершения транзакции убирает то, что успели загрузить до коммита
+        AfterCommit.repeatOnCompletion(() -> cache.invalidate(id));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+        AfterCommit.repeatOnCompletion(cache::invalidateAll);
+        log.debug("Film cache cleared");
+    }
+
+    private static Film copy(Film film) {
+        MPA mpa = film.getMpa() == null ? null : MPA.builder()
+                .id(film.getMpa().getId())
+                .name(film.getMpa().getName())
+                .build();
+
+        Film copy = Film.builder()
+                .id(film.getId())
+                .name(film.getName())
+                .description(film.getDescription())
+                .releaseDate(film.getReleaseDate())
+                .duration(film.getDuration())
+                .likesCount(film.getLikesCount())
+                .storedLikesCount(film.getStoredLikesCount())
+                .mpa(mpa)
+                .build();
+        copy.getGenres().addAll(film.getGenres());
+        copy.getDirectors().addAll(film.getDirectors());
+
+        return copy;
+    }
+
+    // Примерный размер фильма в байтах: объект с датами и MPA, строки в UTF-16, элементы коллекций
+    private static int weigh(Long id, Film film) {
+        return 160
+                + length(film.getName()) * 2
+                + length(film.getDescription()) * 2
+                + film.getGenres().size() * 64
+                + film.getDirectors().size() * 96;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
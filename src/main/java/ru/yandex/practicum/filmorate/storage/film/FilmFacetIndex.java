@@ -0,0 +1,246 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Битовые карты фильмов по жанру, рейтингу MPA, году выпуска и режиссёру. Фильтр любой комбинацией
+ * вычисляется операциями AND/OR над картами, затем за один проход по найденным фильмам выбираются
+ * top-K по лайкам и считаются фасеты. Индекс - снимок базы: после изменений фильмов или лайков
+ * он перестраивается не чаще раза в filmorate.facets.refresh-ms, запросы тем временем читают прежний снимок.
+ */
+@Slf4j
+@Component
+public class FilmFacetIndex {
+    private static final String FIND_FILMS_QUERY = "SELECT f.id, f.MPA_id, f.release_year, f.likes_count " +
+            "FROM films f WHERE f.deleted = FALSE";
+    private static final String FIND_GENRES_QUERY = "SELECT fg.film_id, fg.genre_id FROM film_genres fg " +
+            "JOIN films f ON f.id = fg.film_id WHERE f.deleted = FALSE";
+    private static final String FIND_DIRECTORS_QUERY = "SELECT fd.film_id, fd.director_id FROM film_directors fd " +
+            "JOIN films f ON f.id = fd.film_id WHERE f.deleted = FALSE";
+
+    private final JdbcTemplate jdbc;
+    private final LikeCounters likeCounters;
+    private final long refreshMillis;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile Snapshot snapshot;
+
+    public FilmFacetIndex(JdbcTemplate jdbc,
+                          LikeCounters likeCounters,
+                          @Value("${filmorate.facets.refresh-ms:1000}") long refreshMillis) {
+        this.jdbc = jdbc;
+        this.likeCounters = likeCounters;
+        this.refreshMillis = refreshMillis;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Filter {
+        private final Collection<Long> genreIds;
+        // true - фильм должен иметь все жанры, false - хотя бы один
+        private final boolean allGenres;
+        private final Long mpaId;
+        private final Integer decade;
+        private final Long directorId;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Result {
+        private final List<Long> filmIds;
+        private final Map<String, Map<Long, Integer>> facets;
+    }
+
+    /**
+     * @param changes счётчик изменений фильмов и лайков; снимок, построенный при другом значении, устарел
+     */
+    public Result search(Filter filter, int count, long changes) {
+        Snapshot current = current(changes);
+
+        BitSet matched = (BitSet) current.all.clone();
+        if (filter.getGenreIds() != null && !filter.getGenreIds().isEmpty()) {
+            BitSet genres = filter.isAllGenres() ? (BitSet) current.all.clone() : new BitSet();
+            for (Long genreId : filter.getGenreIds()) {
+                BitSet films = current.byGenre.getOrDefault(genreId, new BitSet());
+                if (filter.isAllGenres()) {
+                    genres.and(films);
+                } else {
+                    genres.or(films);
+                }
+            }
+            matched.and(genres);
+        }
+        if (filter.getMpaId() != null) {
+            matched.and(current.byMpa.getOrDefault(filter.getMpaId(), new BitSet()));
+        }
+        if (filter.getDecade() != null) {
+            BitSet decade = new BitSet();
+            for (long year = filter.getDecade(); year < filter.getDecade() + 10; year++) {
+                BitSet films = current.byYear.get(year);
+                if (films != null) {
+                    decade.or(films);
+                }
+            }
+            matched.and(decade);
+        }
+        if (filter.getDirectorId() != null) {
+            matched.and(current.byDirector.getOrDefault(filter.getDirectorId(), new BitSet()));
+        }
+
+        return collect(current, matched, count);
+    }
+
+    // Один проход по найденным фильмам: куча top-K по лайкам и счётчики фасетов
+    private Result collect(Snapshot current, BitSet matched, int count) {
+        Comparator<FilmFacts> byLikes = Comparator.comparingLong((FilmFacts facts) -> facts.likes)
+                .thenComparing(facts -> -facts.id);
+        PriorityQueue<FilmFacts> top = new PriorityQueue<>(byLikes);
+        Map<Long, Integer> genres = new TreeMap<>();
+        Map<Long, Integer> mpa = new TreeMap<>();
+        Map<Long, Integer> decades = new TreeMap<>();
+        Map<Long, Integer> directors = new TreeMap<>();
+
+        for (int id = matched.nextSetBit(0); id >= 0; id = matched.nextSetBit(id + 1)) {
+            FilmFacts facts = current.facts.get(id);
+
+            top.add(facts);
+            if (top.size() > count) {
+                top.poll();
+            }
+
+            for (long genreId : facts.genres) {
+                genres.merge(genreId, 1, Integer::sum);
+            }
+            for (long directorId : facts.directors) {
+                directors.merge(directorId, 1, Integer::sum);
+            }
+            if (facts.mpaId != null) {
+                mpa.merge(facts.mpaId, 1, Integer::sum);
+            }
+            if (facts.year != null) {
+                decades.merge(facts.year - facts.year % 10, 1, Integer::sum);
+            }
+        }
+
+        List<Long> filmIds = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            filmIds.add(top.poll().id);
+        }
+        return new Result(filmIds.reversed(), Map.of(
+                "genres", genres,
+                "mpa", mpa,
+                "decades", decades,
+                "directors", directors));
+    }
+
+    private Snapshot current(long changes) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = build(changes);
+                }
+                return snapshot;
+            }
+        }
+
+        boolean stale = current.changes != changes
+                && System.currentTimeMillis() - current.builtAt >= refreshMillis;
+        if (stale && rebuilding.compareAndSet(false, true)) {
+            try {
+                snapshot = build(changes);
+                return snapshot;
+            } finally {
+                rebuilding.set(false);
+            }
+        }
+        return current;
+    }
+
+    private Snapshot build(long changes) {
+        long startedAt = System.currentTimeMillis();
+        Snapshot built = new Snapshot(changes, startedAt);
+
+        jdbc.query(FIND_FILMS_QUERY, rs -> {
+            long id = rs.getLong("id");
+            if (id < 0 || id > Integer.MAX_VALUE) {
+                return;
+            }
+            long mpaId = rs.getLong("MPA_id");
+            Long mpa = rs.wasNull() ? null : mpaId;
+            long year = rs.getLong("release_year");
+            Long releaseYear = rs.wasNull() ? null : year;
+
+            built.all.set((int) id);
+            built.facts.put((int) id, new FilmFacts(id,
+                    rs.getLong("likes_count") + likeCounters.pending(id), mpa, releaseYear));
+            if (mpa != null) {
+                built.byMpa.computeIfAbsent(mpa, key -> new BitSet()).set((int) id);
+            }
+            if (releaseYear != null) {
+                built.byYear.computeIfAbsent(releaseYear, key -> new BitSet()).set((int) id);
+            }
+        });
+        jdbc.query(FIND_GENRES_QUERY, rs -> {
+            FilmFacts facts = built.facts.get((int) rs.getLong("film_id"));
+            if (facts != null) {
+                long genreId = rs.getLong("genre_id");
+                facts.genres.add(genreId);
+                built.byGenre.computeIfAbsent(genreId, key -> new BitSet()).set((int) facts.id);
+            }
+        });
+        jdbc.query(FIND_DIRECTORS_QUERY, rs -> {
+            FilmFacts facts = built.facts.get((int) rs.getLong("film_id"));
+            if (facts != null) {
+                long directorId = rs.getLong("director_id");
+                facts.directors.add(directorId);
+                built.byDirector.computeIfAbsent(directorId, key -> new BitSet()).set((int) facts.id);
+            }
+        });
+
+        log.debug("Film facet index built in {} ms: {} films", System.currentTimeMillis() - startedAt,
+                built.all.cardinality());
+        return built;
+    }
+
+    private static final class Snapshot {
+        private final long changes;
+        private final long builtAt;
+        private final BitSet all = new BitSet();
+        private final Map<Integer, FilmFacts> facts = new HashMap<>();
+        private final Map<Long, BitSet> byGenre = new HashMap<>();
+        private final Map<Long, BitSet> byMpa = new HashMap<>();
+        private final Map<Long, BitSet> byYear = new HashMap<>();
+        private final Map<Long, BitSet> byDirector = new HashMap<>();
+
+        private Snapshot(long changes, long builtAt) {
+            this.changes = changes;
+            this.builtAt = builtAt;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class FilmFacts {
+        private final long id;
+        private final long likes;
+        private final Long mpaId;
+        private final Long year;
+        private final List<Long> genres = new ArrayList<>(2);
+        private final List<Long> directors = new ArrayList<>(1);
+    }
+}
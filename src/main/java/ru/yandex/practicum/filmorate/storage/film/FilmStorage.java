@@ -1,10 +1,13 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmListQuery;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface FilmStorage {
     Film create(Film film);
@@ -13,24 +16,50 @@ public interface FilmStorage {
 
     Collection<Film> findAll();
 
+    Collection<Film> findAll(Set<FilmField> fields);
+
+    List<Film> findPage(FilmListQuery query, Set<FilmField> fields);
+
     Optional<Film> findById(Long id);
 
+    Optional<Film> findById(Long id, Set<FilmField> fields);
+
+    List<Film> findByIds(Collection<Long> ids, Set<FilmField> fields);
+
     boolean containsFilm(Long id);
 
     List<Film> getFilmsByDirectorSortedByYear(Long directorId);
 
+    List<Film> getFilmsByDirectorSortedByYear(Long directorId, Set<FilmField> fields);
+
     List<Film> getFilmsByDirectorSortedByLikes(Long directorId);
 
+    List<Film> getFilmsByDirectorSortedByLikes(Long directorId, Set<FilmField> fields);
+
     List<Film> getRecommendationFilms(Long userId);
 
+    List<Film> getRecommendationFilms(Long userId, Set<FilmField> fields);
+
+    List<Film> findSimilar(Long filmId, int count, Set<FilmField> fields);
+
+    List<Film> findTopByIds(Collection<Long> ids, int count, Set<FilmField> fields);
+
     List<Film> getMostPopularFilms(int count, Integer genreId, Integer year);
 
+    List<Film> getMostPopularFilms(int count, Integer genreId, Integer year, Set<FilmField> fields);
+
     boolean deleteById(Long id);
 
     List<Film> findByTitle(String query);
 
+    List<Film> findByTitle(String query, Set<FilmField> fields);
+
     List<Film> findByDirector(String query);
 
+    List<Film> findByDirector(String query, Set<FilmField> fields);
+
     List<Film> findByTitleOrDirector(String query);
 
+    List<Film> findByTitleOrDirector(String query, Set<FilmField> fields);
+
 }
@@ -6,13 +6,22 @@ import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
 import ru.yandex.practicum.filmorate.exception.InternalServerException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmCursor;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmListQuery;
+import ru.yandex.practicum.filmorate.model.FilmSort;
 
+import java.text.Collator;
 import java.time.LocalDate;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 import static ru.yandex.practicum.filmorate.storage.film.FilmValidator.*;
 
@@ -67,6 +76,40 @@ public class InMemoryFilmStorage implements FilmStorage {
         return films.values();
     }
 
+    @Override
+    public Collection<Film> findAll(Set<FilmField> fields) {
+        return findAll();
+    }
+
+    @Override
+    public List<Film> findPage(FilmListQuery query, Set<FilmField> fields) {
+        // Значения сортировки берутся так же, как их кодирует cursor, поэтому позиция сравнивается с тем же полем
+        Comparator<Film> order = Comparator.comparing((Film film) -> FilmCursor.after(film, query.getSort()).getValue(),
+                        valueComparator(query.getSort()))
+                .thenComparing(Film::getId);
+        if (query.isDescending()) {
+            order = order.reversed();
+        }
+        Comparator<Film> pageOrder = order;
+        FilmCursor after = query.getAfter();
+
+        return films.values().stream()
+                .filter(film -> query.getReleasedFrom() == null
+                        || !film.getReleaseDate().isBefore(query.getReleasedFrom()))
+                .filter(film -> query.getReleasedTo() == null || !film.getReleaseDate().isAfter(query.getReleasedTo()))
+                .filter(film -> query.getDurationMin() == null || film.getDuration() >= query.getDurationMin())
+                .filter(film -> query.getDurationMax() == null || film.getDuration() <= query.getDurationMax())
+                .filter(film -> after == null || pageOrder.compare(film, cursorFilm(after, query.getSort())) > 0)
+                .sorted(pageOrder)
+                .limit(query.getCount())
+                .toList();
+    }
+
+    @Override
+    public Optional<Film> findById(Long id, Set<FilmField> fields) {
+        return findById(id);
+    }
+
     @Override
     public Optional<Film> findById(Long id) {
         log.debug("Starting findById, id = {}", id);
@@ -77,6 +120,14 @@ public class InMemoryFilmStorage implements FilmStorage {
         return Optional.of(films.get(id));
     }
 
+    @Override
+    public List<Film> findByIds(Collection<Long> ids, Set<FilmField> fields) {
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
     @Override
     public boolean containsFilm(Long id) {
         log.debug("Starting containsFilm, id = {}", id);
@@ -93,22 +144,80 @@ public class InMemoryFilmStorage implements FilmStorage {
         throw new RuntimeException("Метод не реализован");
     }
 
+    @Override
+    public List<Film> getFilmsByDirectorSortedByYear(Long directorId, Set<FilmField> fields) {
+        return getFilmsByDirectorSortedByYear(directorId);
+    }
+
     @Override
     public List<Film> getFilmsByDirectorSortedByLikes(Long directorId) {
         throw new RuntimeException("Метод не реализован");
     }
 
+    @Override
+    public List<Film> getFilmsByDirectorSortedByLikes(Long directorId, Set<FilmField> fields) {
+        return getFilmsByDirectorSortedByLikes(directorId);
+    }
+
     @Override
     public List<Film> getRecommendationFilms(Long userId) {
         throw new InternalServerException("Метод не реализован");
     }
 
+    @Override
+    public List<Film> getRecommendationFilms(Long userId, Set<FilmField> fields) {
+        return getRecommendationFilms(userId);
+    }
+
 
     @Override
     public List<Film> getMostPopularFilms(int count, Integer genreId, Integer year) {
         throw new UnsupportedOperationException("Метод находится в разработке");
     }
 
+    @Override
+    public List<Film> getMostPopularFilms(int count, Integer genreId, Integer year, Set<FilmField> fields) {
+        return getMostPopularFilms(count, genreId, year);
+    }
+
+    // Похожие фильмы - по числу общих лайков, при равенстве по id
+    @Override
+    public List<Film> findSimilar(Long filmId, int count, Set<FilmField> fields) {
+        Film film = films.get(filmId);
+        if (film == null || film.getLikes() == null || film.getLikes().isEmpty()) {
+            return List.of();
+        }
+
+        Map<Long, Long> scores = new HashMap<>();
+        for (Film other : films.values()) {
+            if (other.getId().equals(filmId) || other.getLikes() == null) {
+                continue;
+            }
+            long common = other.getLikes().stream().filter(film.getLikes()::contains).count();
+            if (common > 0) {
+                scores.put(other.getId(), common);
+            }
+        }
+
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<Long, Long>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(count)
+                .map(entry -> films.get(entry.getKey()))
+                .toList();
+    }
+
+    @Override
+    public List<Film> findTopByIds(Collection<Long> ids, int count, Set<FilmField> fields) {
+        return ids.stream()
+                .distinct()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparingLong(Film::getLikesCount).reversed().thenComparing(Film::getId))
+                .limit(count)
+                .toList();
+    }
+
     @Override
     public boolean deleteById(Long id) {
         log.debug("Starting deleteById, id = {}", id);
@@ -120,16 +229,31 @@ public class InMemoryFilmStorage implements FilmStorage {
         throw new RuntimeException("Метод не реализован");
     }
 
+    @Override
+    public List<Film> findByTitle(String query, Set<FilmField> fields) {
+        return findByTitle(query);
+    }
+
     @Override
     public List<Film> findByDirector(String query) {
         throw new RuntimeException("Метод не реализован");
     }
 
+    @Override
+    public List<Film> findByDirector(String query, Set<FilmField> fields) {
+        return findByDirector(query);
+    }
+
     @Override
     public List<Film> findByTitleOrDirector(String query) {
         throw new RuntimeException("Метод не реализован");
     }
 
+    @Override
+    public List<Film> findByTitleOrDirector(String query, Set<FilmField> fields) {
+        return findByTitleOrDirector(query);
+    }
+
     private void updateFilmFields(Film oldFilm, Film newFilm) {
         log.debug("Starting update Film fields, id = {}", newFilm.getId());
         if (newFilm.getName() != null) {
@@ -154,6 +278,28 @@ public class InMemoryFilmStorage implements FilmStorage {
         log.debug("Film updated. {}", oldFilm.toString());
     }
 
+    // Названия сравниваются по правилам русского языка, как при COLLATION RUSSIAN в базе
+    @SuppressWarnings("unchecked")
+    private static Comparator<Object> valueComparator(FilmSort sort) {
+        if (sort == FilmSort.NAME) {
+            Collator collator = Collator.getInstance(Locale.forLanguageTag("ru"));
+            return Comparator.nullsFirst((first, second) -> collator.compare(first, second));
+        }
+        return Comparator.nullsFirst((first, second) -> ((Comparable<Object>) first).compareTo(second));
+    }
+
+    // Фильм-образец с полями из cursor: с ним сравниваются фильмы при отборе следующей страницы
+    private static Film cursorFilm(FilmCursor cursor, FilmSort sort) {
+        Film.FilmBuilder film = Film.builder().id(cursor.getFilmId());
+        switch (sort) {
+            case NAME -> film.name((String) cursor.getValue());
+            case RELEASE_DATE -> film.releaseDate((LocalDate) cursor.getValue());
+            case DURATION -> film.duration((Long) cursor.getValue());
+            case LIKES -> film.storedLikesCount((Long) cursor.getValue());
+        }
+        return film.build();
+    }
+
     private Long getNextId() {
         long currentMaxId = films.keySet().stream().mapToLong(id -> id).max().orElse(0);
 
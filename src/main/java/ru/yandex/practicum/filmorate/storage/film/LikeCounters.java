@@ -0,0 +1,110 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.storage.dal.AfterCommit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Изменения films.likes_count, ещё не записанные в базу. Лайк увеличивает счётчик фильма в памяти
+ * (LongAdder не создаёт конкуренции между потоками), а раз в filmorate.likes.flush-interval-ms накопленные
+ * разницы записываются одним пакетом UPDATE. Так строка популярного фильма не блокируется на каждый лайк.
+ * Число лайков при чтении - значение из базы плюс pending(id). Запросы, которые режут список по likes_count,
+ * сначала вызывают flush(): иначе фильм с ещё не записанными лайками не попадёт в выборку.
+ */
+@Slf4j
+@Component
+public class LikeCounters {
+    private static final String FLUSH_QUERY = "UPDATE films SET likes_count = likes_count + ? WHERE id = ?";
+
+    private final JdbcTemplate jdbc;
+    private final FilmCache filmCache;
+    private final TransactionTemplate ownTransaction;
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    public LikeCounters(JdbcTemplate jdbc, FilmCache filmCache, PlatformTransactionManager transactionManager) {
+        this.jdbc = jdbc;
+        this.filmCache = filmCache;
+        // flush вызывается и из чтений внутри чужой транзакции: её откат не должен отменить записанные разницы
+        this.ownTransaction = new TransactionTemplate(transactionManager);
+        this.ownTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Разница видна сразу, в том числе внутри транзакции лайка. При откате транзакции она вычитается обратно.
+     */
+    public void add(Long filmId, long delta) {
+        Counter counter = counters.computeIfAbsent(filmId, id -> new Counter());
+        counter.pending.add(delta);
+
+        AfterCommit.undoOnRollback(() -> {
+            counters.computeIfAbsent(filmId, id -> new Counter()).pending.add(-delta);
+            filmCache.invalidate(filmId);
+        });
+    }
+
+    public long pending(Long filmId) {
+        Counter counter = counters.get(filmId);
+        return counter == null ? 0 : counter.pending.sum() + counter.flushing.get();
+    }
+
+    public void remove(Long filmId) {
+        counters.remove(filmId);
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${filmorate.likes.flush-interval-ms:200}")
+    public synchronized void flush() {
+        List<Counter> flushed = new ArrayList<>();
+        List<Object[]> batch = new ArrayList<>();
+
+        counters.forEach((filmId, counter) -> {
+            // sumThenReset забирает значение каждой ячейки атомарно: лайк попадёт либо в эту пачку, либо в следующую
+            long delta = counter.pending.sumThenReset();
+            if (delta != 0) {
+                counter.flushing.addAndGet(delta);
+                flushed.add(counter);
+                batch.add(new Object[]{delta, filmId});
+            }
+        });
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        boolean written = false;
+        try {
+            ownTransaction.executeWithoutResult(status -> jdbc.batchUpdate(FLUSH_QUERY, batch));
+            written = true;
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush like counters of {} films, will retry", batch.size(), e);
+        } finally {
+            for (int i = 0; i < flushed.size(); i++) {
+                Counter counter = flushed.get(i);
+                long delta = (long) batch.get(i)[0];
+                if (!written) {
+                    counter.pending.add(delta);
+                }
+                counter.flushing.addAndGet(-delta);
+            }
+        }
+        log.trace("Flushed like counters of {} films", batch.size());
+    }
+
+    private static final class Counter {
+        private final LongAdder pending = new LongAdder();
+        // Разница, которая сейчас записывается в базу: пока запись идёт, она учитывается при чтении
+        private final AtomicLong flushing = new AtomicLong();
+    }
+}
@@ -0,0 +1,192 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.TrendingWindow;
+import ru.yandex.practicum.filmorate.storage.dal.AfterCommit;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Число лайков фильмов за последний час, сутки и неделю. Для каждого фильма и окна хранится кольцо корзин,
+ * лайк увеличивает корзину своего времени, а при сдвиге времени вышедшие из окна корзины обнуляются.
+ * В памяти только фильмы с лайками за последнюю неделю; при старте счётчики восстанавливаются из likes.liked_at.
+ */
+@Slf4j
+@Component
+public class TrendingCounters {
+    private static final String FIND_RECENT_LIKES_QUERY = "SELECT l.film_id, l.liked_at FROM likes l " +
+            "JOIN films f ON f.id = l.film_id AND f.deleted = FALSE " +
+            "JOIN users u ON u.id = l.user_id AND u.deleted = FALSE " +
+            "WHERE l.liked_at >= ?";
+    private static final String FIND_RECENT_USER_LIKES_QUERY = "SELECT l.film_id, l.liked_at FROM likes l " +
+            "JOIN films f ON f.id = l.film_id AND f.deleted = FALSE " +
+            "WHERE l.user_id = ? AND l.liked_at >= ?";
+    private static final TrendingWindow[] WINDOWS = TrendingWindow.values();
+
+    private final JdbcTemplate jdbc;
+    private volatile Map<Long, FilmCounter> counters = new ConcurrentHashMap<>();
+
+    public TrendingCounters(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        long now = System.currentTimeMillis();
+        Map<Long, FilmCounter> rebuilt = new ConcurrentHashMap<>();
+
+        jdbc.query(FIND_RECENT_LIKES_QUERY, rs -> {
+            rebuilt.computeIfAbsent(rs.getLong("film_id"), id -> new FilmCounter())
+                    .add(rs.getTimestamp("liked_at").getTime(), 1, now);
+        }, new Timestamp(now - TrendingWindow.WEEK.getMillis()));
+
+        // Перестраивается при старте, до первых лайков: лайк во время замены карты был бы потерян
+        counters = rebuilt;
+        log.info("Trending counters rebuilt: {} films", rebuilt.size());
+    }
+
+    // Применяются после коммита: лайк из откаченной транзакции в счётчики не попадает
+    public void liked(Long filmId, Instant likedAt) {
+        AfterCommit.run(() -> add(filmId, likedAt.toEpochMilli(), 1, System.currentTimeMillis()));
+    }
+
+    public void unliked(Long filmId, Instant likedAt) {
+        AfterCommit.run(() -> add(filmId, likedAt.toEpochMilli(), -1, System.currentTimeMillis()));
+    }
+
+    public void remove(Long filmId) {
+        AfterCommit.run(() -> counters.remove(filmId));
+    }
+
+    /**
+     * Лайки пользователя за неделю как пары {film_id, liked_at}. Читаются до удаления пользователя,
+     * как и для пересчёта films.likes_count: потом лайков в таблице уже нет.
+     */
+    public List<long[]> findRecentLikes(Long userId) {
+        return jdbc.query(FIND_RECENT_USER_LIKES_QUERY, (rs, rowNum) -> new long[]{
+                rs.getLong("film_id"), rs.getTimestamp("liked_at").getTime()
+        }, userId, new Timestamp(System.currentTimeMillis() - TrendingWindow.WEEK.getMillis()));
+    }
+
+    // После коммита удаления вычитаются только лайки этого пользователя, остальные счётчики не трогаются
+    public void userRemoved(List<long[]> likes) {
+        AfterCommit.run(() -> {
+            long now = System.currentTimeMillis();
+            likes.forEach(like -> add(like[0], like[1], -1, now));
+        });
+    }
+
+    public void add(Long filmId, long atMillis, int delta, long nowMillis) {
+        if (atMillis < nowMillis - TrendingWindow.WEEK.getMillis()) {
+            return;
+        }
+        // Лайк применяется внутри compute: вытеснение счётчика в top() не может выполниться между get и add
+        counters.compute(filmId, (id, counter) -> {
+            FilmCounter target = counter == null ? new FilmCounter() : counter;
+            target.add(atMillis, delta, nowMillis);
+            return target;
+        });
+    }
+
+    public int count(Long filmId, TrendingWindow window, long nowMillis) {
+        FilmCounter counter = counters.get(filmId);
+        return counter == null ? 0 : counter.count(window, nowMillis);
+    }
+
+    public List<Long> top(TrendingWindow window, int count) {
+        return top(window, count, System.currentTimeMillis());
+    }
+
+    /**
+     * Id фильмов с наибольшим числом лайков в окне, по убыванию. Фильмы без лайков за неделю
+     * попутно удаляются из памяти.
+     */
+    public List<Long> top(TrendingWindow window, int count, long nowMillis) {
+        Comparator<long[]> byLikes = Comparator.<long[]>comparingLong(entry -> entry[1])
+                .thenComparing(entry -> -entry[0]);
+        PriorityQueue<long[]> top = new PriorityQueue<>(byLikes);
+
+        counters.forEach((filmId, counter) -> {
+            if (counter.count(TrendingWindow.WEEK, nowMillis) <= 0) {
+                // Итог перепроверяется под блокировкой ключа: за это время мог прийти новый лайк
+                counters.computeIfPresent(filmId, (id, current) ->
+                        current.count(TrendingWindow.WEEK, nowMillis) <= 0 ? null : current);
+                return;
+            }
+
+            int likes = counter.count(window, nowMillis);
+            if (likes > 0) {
+                top.add(new long[]{filmId, likes});
+                if (top.size() > count) {
+                    top.poll();
+                }
+            }
+        });
+
+        List<Long> filmIds = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            filmIds.add(top.poll()[0]);
+        }
+        return filmIds.reversed();
+    }
+
+    private static final class FilmCounter {
+        private final int[][] buckets = new int[WINDOWS.length][];
+        // Номер последней корзины каждого окна (время / длина корзины)
+        private final long[] heads = new long[WINDOWS.length];
+        private final int[] totals = new int[WINDOWS.length];
+
+        private FilmCounter() {
+            for (TrendingWindow window : WINDOWS) {
+                buckets[window.ordinal()] = new int[window.getBuckets()];
+            }
+        }
+
+        private synchronized void add(long atMillis, int delta, long nowMillis) {
+            for (TrendingWindow window : WINDOWS) {
+                int w = window.ordinal();
+                long bucket = atMillis / window.getBucketMillis();
+                advance(window, Math.max(bucket, nowMillis / window.getBucketMillis()));
+                if (bucket > heads[w] - window.getBuckets()) {
+                    buckets[w][(int) (bucket % window.getBuckets())] += delta;
+                    totals[w] += delta;
+                }
+            }
+        }
+
+        private synchronized int count(TrendingWindow window, long nowMillis) {
+            advance(window, nowMillis / window.getBucketMillis());
+            return totals[window.ordinal()];
+        }
+
+        private void advance(TrendingWindow window, long bucket) {
+            int w = window.ordinal();
+            if (bucket <= heads[w]) {
+                return;
+            }
+
+            if (bucket - heads[w] >= window.getBuckets()) {
+                Arrays.fill(buckets[w], 0);
+                totals[w] = 0;
+            } else {
+                for (long b = heads[w] + 1; b <= bucket; b++) {
+                    int slot = (int) (b % window.getBuckets());
+                    totals[w] -= buckets[w][slot];
+                    buckets[w][slot] = 0;
+                }
+            }
+            heads[w] = bucket;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ru.yandex.practicum.filmorate.storage.review;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.storage.dal.AfterCommit;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Самые полезные отзывы каждого фильма в памяти, в порядке (useful DESC, id). Для фильма хранится
+ * начало его списка отзывов длиной до 2 * size: запас нужен, чтобы отзыв, опустившийся вниз или удалённый,
+ * не заставлял сразу перечитывать список из базы. Запросы с count <= size отвечаются без обращения к базе.
+ */
+@Slf4j
+@Component
+public class ReviewLeaderboard {
+    private static final Comparator<Review> BY_USEFUL = Comparator.comparingInt(Review::getUseful).reversed()
+            .thenComparing(Review::getReviewId);
+
+    private final int size;
+    private final int capacity;
+    private final Map<Long, Board> boards = new ConcurrentHashMap<>();
+    // Меняется при каждом изменении, загрузка из базы не кладёт результат, если за время загрузки были изменения
+    private final AtomicLong version = new AtomicLong();
+
+    public ReviewLeaderboard(@Value("${filmorate.reviews.leaderboard.size:10}") int size) {
+        this.size = size;
+        this.capacity = size * 2;
+    }
+
+    public Collection<Review> top(Long filmId, int count, IntFunction<Collection<Review>> loader) {
+        if (count > size) {
+            return loader.apply(count);
+        }
+
+        Board board = boards.get(filmId);
+        if (board != null) {
+            List<Review> found = board.top(count);
+            if (found != null) {
+                return found;
+            }
+        }
+
+        long loadedAt = version.get();
+        Collection<Review> loaded = loader.apply(capacity);
+        board = new Board(loaded, loaded.size() < capacity);
+        if (version.get() == loadedAt) {
+            boards.put(filmId, board);
+        }
+
+        return board.top(count);
+    }
+
+    // Создание, изменение текста или полезности. Применяется после коммита, откаченные изменения не попадают в память
+    public void saved(Review review) {
+        Review copy = copy(review);
+        AfterCommit.run(() -> {
+            version.incrementAndGet();
+            Board board = boards.get(copy.getFilmId());
+            if (board != null) {
+                board.save(copy);
+            }
+        });
+    }
+
+    public void deleted(Review review) {
+        Long filmId = review.getFilmId();
+        Long reviewId = review.getReviewId();
+        AfterCommit.run(() -> {
+            version.incrementAndGet();
+            Board board = boards.get(filmId);
+            if (board != null) {
+                board.remove(reviewId);
+            }
+        });
+    }
+
+    public void invalidate(Long filmId) {
+        version.incrementAndGet();
+        boards.remove(filmId);
+        AfterCommit.run(() -> {
+            version.incrementAndGet();
+            boards.remove(filmId);
+        });
+    }
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        boards.clear();
+        AfterCommit.run(() -> {
+            version.incrementAndGet();
+            boards.clear();
+        });
+        log.debug("Review leaderboards cleared");
+    }
+
+    private static Review copy(Review review) {
+        return Review.builder()
+                .reviewId(review.getReviewId())
+                .content(review.getContent())
+                .isPositive(review.getIsPositive())
+                .userId(review.getUserId())
+                .filmId(review.getFilmId())
+                .useful(review.getUseful())
+                .build();
+    }
+
+    /**
+     * Начало списка отзывов фильма. Пока complete == false, за последним элементом в базе могут быть
+     * ещё отзывы, поэтому отзыв, оказавшийся ниже последнего, из памяти выбрасывается.
+     */
+    private final class Board {
+        private final TreeSet<Review> ranked = new TreeSet<>(BY_USEFUL);
+        private final Map<Long, Review> byId = new HashMap<>();
+        private boolean complete;
+
+        private Board(Collection<Review> loaded, boolean complete) {
+            this.complete = complete;
+            loaded.forEach(review -> add(copy(review)));
+        }
+
+        private synchronized List<Review> top(int count) {
+            if (!complete && ranked.size() < count) {
+                return null;
+            }
+
+            return ranked.stream()
+                    .limit(count)
+                    .map(ReviewLeaderboard::copy)
+                    .toList();
+        }
+
+        private synchronized void save(Review review) {
+            remove(review.getReviewId());
+
+            if (complete || (!ranked.isEmpty() && BY_USEFUL.compare(review, ranked.last()) < 0)) {
+                add(review);
+            }
+
+            while (ranked.size() > capacity) {
+                byId.remove(ranked.pollLast().getReviewId());
+                complete = false;
+            }
+        }
+
+        private synchronized void remove(Long reviewId) {
+            Review old = byId.remove(reviewId);
+            if (old != null) {
+                ranked.remove(old);
+            }
+        }
+
+        private void add(Review review) {
+            ranked.add(review);
+            byId.put(review.getReviewId(), review);
+        }
+    }
+}
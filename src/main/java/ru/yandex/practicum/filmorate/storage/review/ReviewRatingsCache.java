@@ -0,0 +1,179 @@
+package ru.yandex.practicum.filmorate.storage.review;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.ReviewRating;
+import ru.yandex.practicum.filmorate.storage.dal.AfterCommit;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Оценки отзывов в памяти: для каждого отзыва два отсортированных массива id пользователей - поставивших
+ * лайк и дизлайк. Оценок у отзыва обычно немного, поэтому массивы компактнее битовых карт по всему
+ * диапазону id. Загружаются при первом обращении к отзыву, размер каждого загруженного отзыва
+ * пишется в метрику filmorate.reviews.ratings.bytes.
+ */
+@Slf4j
+@Component
+public class ReviewRatingsCache {
+    private final Cache<Long, Ratings> cache;
+    private final DistributionSummary ratingsBytes;
+    // Загрузка не кладёт результат в кэш, если за время загрузки оценки менялись
+    private final AtomicLong version = new AtomicLong();
+
+    public ReviewRatingsCache(MeterRegistry meterRegistry,
+                              @Value("${filmorate.cache.review-ratings.max-weight:16777216}") long maxWeight) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((Long id, Ratings ratings) -> ratings.sizeInBytes())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "review_ratings");
+        this.ratingsBytes = DistributionSummary.builder("filmorate.reviews.ratings.bytes")
+                .description("Память под оценки одного отзыва")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Оценка пользователя за одну проверку. Пусто, если id пользователя не помещается в int -
+     * такие оценки проверяются запросом к базе.
+     */
+    public Optional<ReviewRating> get(Long reviewId, Long userId, Function<Long, Map<Long, Boolean>> loader) {
+        if (!isTracked(userId)) {
+            return Optional.empty();
+        }
+
+        Ratings ratings = cache.getIfPresent(reviewId);
+        if (ratings == null) {
+            long loadedAt = version.get();
+            Map<Long, Boolean> loaded = loader.apply(reviewId);
+            if (loaded.keySet().stream().anyMatch(id -> !isTracked(id))) {
+                return Optional.empty();
+            }
+
+            ratings = new Ratings(loaded);
+            ratingsBytes.record(ratings.sizeInBytes());
+            log.debug("Ratings of review id = {} loaded: {} bytes", reviewId, ratings.sizeInBytes());
+            if (version.get() == loadedAt) {
+                cache.put(reviewId, ratings);
+            }
+        }
+
+        return Optional.of(ratings.get(userId.intValue()));
+    }
+
+    // Применяется после коммита, откаченные оценки в память не попадают
+    public void set(Long reviewId, Long userId, ReviewRating rating) {
+        AfterCommit.run(() -> {
+            version.incrementAndGet();
+            if (!isTracked(userId)) {
+                cache.invalidate(reviewId);
+                return;
+            }
+
+            Ratings ratings = cache.getIfPresent(reviewId);
+            if (ratings != null) {
+                ratings.set(userId.intValue(), rating);
+                // Пересчитываем вес записи
+                cache.put(reviewId, ratings);
+            }
+        });
+    }
+
+    public void invalidate(Long reviewId) {
+        AfterCommit.run(() -> {
+            version.incrementAndGet();
+            cache.invalidate(reviewId);
+        });
+    }
+
+    public void invalidateAll() {
+        AfterCommit.run(() -> {
+            version.incrementAndGet();
+            cache.invalidateAll();
+        });
+    }
+
+    public Optional<Integer> sizeInBytes(Long reviewId) {
+        return Optional.ofNullable(cache.getIfPresent(reviewId)).map(Ratings::sizeInBytes);
+    }
+
+    private static boolean isTracked(Long userId) {
+        return userId != null && userId >= 0 && userId <= Integer.MAX_VALUE;
+    }
+
+    private static final class Ratings {
+        private int[] likes;
+        private int[] dislikes;
+
+        private Ratings(Map<Long, Boolean> loaded) {
+            likes = loaded.entrySet().stream()
+                    .filter(Map.Entry::getValue)
+                    .mapToInt(entry -> entry.getKey().intValue())
+                    .sorted()
+                    .toArray();
+            dislikes = loaded.entrySet().stream()
+                    .filter(entry -> !entry.getValue())
+                    .mapToInt(entry -> entry.getKey().intValue())
+                    .sorted()
+                    .toArray();
+        }
+
+        private synchronized ReviewRating get(int userId) {
+            if (Arrays.binarySearch(likes, userId) >= 0) {
+                return ReviewRating.LIKE;
+            }
+            if (Arrays.binarySearch(dislikes, userId) >= 0) {
+                return ReviewRating.DISLIKE;
+            }
+            return ReviewRating.NONE;
+        }
+
+        private synchronized void set(int userId, ReviewRating rating) {
+            likes = rating == ReviewRating.LIKE ? add(likes, userId) : remove(likes, userId);
+            dislikes = rating == ReviewRating.DISLIKE ? add(dislikes, userId) : remove(dislikes, userId);
+        }
+
+        // Заголовок объекта и два массива с заголовками
+        private synchronized int sizeInBytes() {
+            return 24 + 2 * 16 + (likes.length + dislikes.length) * Integer.BYTES;
+        }
+
+        private static int[] add(int[] ids, int userId) {
+            int pos = Arrays.binarySearch(ids, userId);
+            if (pos >= 0) {
+                return ids;
+            }
+
+            int insertAt = -pos - 1;
+            int[] result = new int[ids.length + 1];
+            System.arraycopy(ids, 0, result, 0, insertAt);
+            result[insertAt] = userId;
+            System.arraycopy(ids, insertAt, result, insertAt + 1, ids.length - insertAt);
+            return result;
+        }
+
+        private static int[] remove(int[] ids, int userId) {
+            int pos = Arrays.binarySearch(ids, userId);
+            if (pos < 0) {
+                return ids;
+            }
+
+            int[] result = new int[ids.length - 1];
+            System.arraycopy(ids, 0, result, 0, pos);
+            System.arraycopy(ids, pos + 1, result, pos, ids.length - pos - 1);
+            return result;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package ru.yandex.practicum.filmorate.storage.review;
 
 import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.model.ReviewCursor;
+import ru.yandex.practicum.filmorate.model.ReviewRating;
 
 import java.util.Collection;
 import java.util.Optional;
@@ -18,6 +20,10 @@ public interface ReviewStorage {
 
     Collection<Review> findAll(Long filmId, Integer count);
 
+    Collection<Review> findPage(Long filmId, ReviewCursor after, int count);
+
+    int updateUseful(Long id, int delta);
+
     void putLike(Long id, Long userId);
 
     void putDislike(Long id, Long userId);
@@ -35,4 +41,6 @@ public interface ReviewStorage {
     boolean isUserLikeReview(Long id, Long userId);
 
     boolean isUserDislikeReview(Long id, Long userId);
+
+    ReviewRating findUserRating(Long id, Long userId);
 }
\ No newline at end of file
@@ -0,0 +1,236 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.dal.AfterCommit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+/**
+ * Граф дружбы в памяти для обхода друзей друзей. Основа - CSR: отсортированные id пользователей,
+ * смещения их строк и общий массив id друзей, отсортированный внутри каждой строки. Добавления и удаления
+ * после загрузки копятся в небольших наборах поверх CSR и вливаются в него, когда их становится больше
+ * filmorate.friends.graph.max-pending. Удалённые пользователи тоже хранятся поверх CSR: их строки и рёбра
+ * к ним пропускаются при обходе и выбрасываются при следующем слиянии.
+ */
+@Slf4j
+@Component
+public class FriendGraph {
+    private static final String FIND_ALL_QUERY = "SELECT fr.first_id, fr.second_id FROM friends fr " +
+            "JOIN users u1 ON u1.id = fr.first_id AND u1.deleted = FALSE " +
+            "JOIN users u2 ON u2.id = fr.second_id AND u2.deleted = FALSE " +
+            "ORDER BY fr.first_id, fr.second_id";
+
+    private final JdbcTemplate jdbc;
+    private final int maxPending;
+    private final int maxDegree;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] users = new long[0];
+    private int[] offsets = new int[]{0};
+    private long[] friends = new long[0];
+    private final Map<Long, Set<Long>> added = new HashMap<>();
+    private final Map<Long, Set<Long>> removed = new HashMap<>();
+    private final Set<Long> removedUsers = new HashSet<>();
+    private int pending;
+
+    public FriendGraph(JdbcTemplate jdbc,
+                       @Value("${filmorate.friends.graph.max-pending:10000}") int maxPending,
+                       @Value("${filmorate.friends.graph.max-degree:1000}") int maxDegree) {
+        this.jdbc = jdbc;
+        this.maxPending = maxPending;
+        this.maxDegree = maxDegree;
+    }
+
+    @PostConstruct
+    public void load() {
+        List<long[]> edges = new ArrayList<>();
+        jdbc.query(FIND_ALL_QUERY, rs -> {
+            edges.add(new long[]{rs.getLong("first_id"), rs.getLong("second_id")});
+        });
+
+        lock.writeLock().lock();
+        try {
+            added.clear();
+            removed.clear();
+            removedUsers.clear();
+            pending = 0;
+            build(edges);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Friend graph loaded: {} users, {} friendships", users.length, friends.length);
+    }
+
+    // Применяются после коммита, как и остальные структуры в памяти
+    public void added(Long userId, Long friendId) {
+        AfterCommit.run(() -> change(userId, friendId, true));
+    }
+
+    public void removed(Long userId, Long friendId) {
+        AfterCommit.run(() -> change(userId, friendId, false));
+    }
+
+    // Пользователь вместе со всеми связями исчезает из обхода без перечитывания графа
+    public void userRemoved(Long userId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                added.remove(userId);
+                removed.remove(userId);
+                removedUsers.add(userId);
+                if (++pending > maxPending) {
+                    compact();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public List<Long> suggestions(Long userId, int count) {
+        return suggestions(userId, count, maxDegree);
+    }
+
+    /**
+     * Друзья друзей пользователя, которых нет среди его друзей, по убыванию числа общих друзей.
+     * У каждого пользователя на пути просматривается не больше maxDegree друзей, поэтому пользователь
+     * с огромным числом друзей не раздувает обход.
+     */
+    public List<Long> suggestions(Long userId, int count, int maxDegree) {
+        Map<Long, Integer> mutual = new HashMap<>();
+        Set<Long> direct = new HashSet<>();
+
+        lock.readLock().lock();
+        try {
+            forEachFriend(userId, maxDegree, direct::add);
+            for (Long friendId : direct) {
+                forEachFriend(friendId, maxDegree, candidate -> mutual.merge(candidate, 1, Integer::sum));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Comparator<Map.Entry<Long, Integer>> byMutual = Map.Entry.<Long, Integer>comparingByValue()
+                .thenComparing(Map.Entry.<Long, Integer>comparingByKey().reversed());
+        PriorityQueue<Map.Entry<Long, Integer>> top = new PriorityQueue<>(byMutual);
+        for (Map.Entry<Long, Integer> entry : mutual.entrySet()) {
+            if (entry.getKey().equals(userId) || direct.contains(entry.getKey())) {
+                continue;
+            }
+            top.add(entry);
+            if (top.size() > count) {
+                top.poll();
+            }
+        }
+
+        List<Long> result = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            result.add(top.poll().getKey());
+        }
+        return result.reversed();
+    }
+
+    private void forEachFriend(Long userId, int limit, LongConsumer action) {
+        if (removedUsers.contains(userId)) {
+            return;
+        }
+        Set<Long> removedFriends = removed.getOrDefault(userId, Set.of());
+        int visited = 0;
+
+        int row = Arrays.binarySearch(users, userId);
+        if (row >= 0) {
+            for (int i = offsets[row]; i < offsets[row + 1] && visited < limit; i++) {
+                if (!removedFriends.contains(friends[i]) && !removedUsers.contains(friends[i])) {
+                    action.accept(friends[i]);
+                    visited++;
+                }
+            }
+        }
+        for (Long friendId : added.getOrDefault(userId, Set.of())) {
+            if (removedUsers.contains(friendId)) {
+                continue;
+            }
+            if (visited++ >= limit) {
+                return;
+            }
+            action.accept(friendId);
+        }
+    }
+
+    private void change(Long userId, Long friendId, boolean add) {
+        lock.writeLock().lock();
+        try {
+            Map<Long, Set<Long>> target = add ? added : removed;
+            Map<Long, Set<Long>> opposite = add ? removed : added;
+
+            Set<Long> cancelled = opposite.get(userId);
+            if (cancelled != null && cancelled.remove(friendId)) {
+                return;
+            }
+            target.computeIfAbsent(userId, id -> new HashSet<>()).add(friendId);
+            if (++pending > maxPending) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Вызывается под блокировкой записи: CSR пересобирается из текущего состояния без обращения к базе
+    private void compact() {
+        List<long[]> edges = new ArrayList<>(friends.length + pending);
+        Set<Long> sources = new HashSet<>(added.keySet());
+        for (long user : users) {
+            sources.add(user);
+        }
+        for (Long user : sources) {
+            forEachFriend(user, Integer.MAX_VALUE, friend -> edges.add(new long[]{user, friend}));
+        }
+        edges.sort(Comparator.<long[]>comparingLong(edge -> edge[0]).thenComparingLong(edge -> edge[1]));
+
+        added.clear();
+        removed.clear();
+        removedUsers.clear();
+        pending = 0;
+        build(edges);
+        log.debug("Friend graph compacted: {} users, {} friendships", users.length, friends.length);
+    }
+
+    // Рёбра отсортированы по (пользователь, друг)
+    private void build(List<long[]> edges) {
+        long[] newUsers = new long[edges.size()];
+        int[] newOffsets = new int[edges.size() + 1];
+        long[] newFriends = new long[edges.size()];
+        int rows = 0;
+
+        for (int i = 0; i < edges.size(); i++) {
+            long[] edge = edges.get(i);
+            if (rows == 0 || newUsers[rows - 1] != edge[0]) {
+                newUsers[rows] = edge[0];
+                newOffsets[rows] = i;
+                rows++;
+            }
+            newFriends[i] = edge[1];
+        }
+        newOffsets[rows] = edges.size();
+
+        users = Arrays.copyOf(newUsers, rows);
+        offsets = Arrays.copyOf(newOffsets, rows + 1);
+        friends = newFriends;
+    }
+}
@@ -7,11 +7,15 @@ import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
 import ru.yandex.practicum.filmorate.exception.DuplicatedDataException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 import static ru.yandex.practicum.filmorate.storage.user.UserValidator.*;
 
@@ -61,6 +65,16 @@ public class InMemoryUserStorage implements UserStorage {
         return users.values();
     }
 
+    @Override
+    public Collection<User> findAll(Set<UserField> fields) {
+        return findAll();
+    }
+
+    @Override
+    public Optional<User> findById(Long id, Set<UserField> fields) {
+        return findById(id);
+    }
+
     @Override
     public Optional<User> findById(Long id) {
         log.debug("Starting find user, id = {}", id);
@@ -70,6 +84,33 @@ public class InMemoryUserStorage implements UserStorage {
         throw new NotFoundException("Пользователь с id = " + id + " не найден");
     }
 
+    @Override
+    public List<User> findByIds(Collection<Long> ids, Set<UserField> fields) {
+        return ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    @Override
+    public List<User> findFriends(Long id, Set<UserField> fields) {
+        return findByIds(findById(id).orElseThrow().getFriends(), fields);
+    }
+
+    @Override
+    public List<User> findCommonFriends(Long firstId, Long secondId, Set<UserField> fields) {
+        Set<Long> secondFriends = findById(secondId).orElseThrow().getFriends();
+        return findByIds(findById(firstId).orElseThrow().getFriends().stream()
+                .filter(secondFriends::contains)
+                .toList(), fields);
+    }
+
+    @Override
+    public boolean isFriends(Long firstId, Long secondId) {
+        return findById(firstId).orElseThrow().getFriends().contains(secondId)
+                && findById(secondId).orElseThrow().getFriends().contains(firstId);
+    }
+
     @Override
     public boolean containsUser(Long id) {
         log.debug("Starting contains user, id = {}", id);
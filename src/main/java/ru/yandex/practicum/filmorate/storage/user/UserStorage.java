@@ -1,9 +1,12 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface UserStorage {
     User create(User user);
@@ -12,8 +15,23 @@ public interface UserStorage {
 
     Collection<User> findAll();
 
+    Collection<User> findAll(Set<UserField> fields);
+
     Optional<User> findById(Long id);
 
+    Optional<User> findById(Long id, Set<UserField> fields);
+
+    /**
+     * Пользователи в порядке переданных id, одним запросом. Несуществующие и удалённые пропускаются.
+     */
+    List<User> findByIds(Collection<Long> ids, Set<UserField> fields);
+
+    List<User> findFriends(Long id, Set<UserField> fields);
+
+    List<User> findCommonFriends(Long firstId, Long secondId, Set<UserField> fields);
+
+    boolean isFriends(Long firstId, Long secondId);
+
     boolean containsUser(Long id);
 
     boolean deleteById(Long id);
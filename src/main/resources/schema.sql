@@ -1,11 +1,15 @@
 DROP ALL OBJECTS;
 
+-- Строки сравниваются по правилам русского языка: от этого зависит порядок названий фильмов в индексе
+SET COLLATION RUSSIAN;
+
 CREATE TABLE IF NOT EXISTS users (
     id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     email VARCHAR,
     login VARCHAR,
     name VARCHAR,
-    birthday DATE
+    birthday DATE,
+    deleted BOOLEAN DEFAULT FALSE NOT NULL
 );
 
 CREATE TABLE IF NOT EXISTS MPAs (
@@ -19,7 +23,10 @@ CREATE TABLE IF NOT EXISTS films (
     description VARCHAR,
     release_date DATE,
     duration INTEGER,
-    MPA_id BIGINT REFERENCES MPAs(id)
+    MPA_id BIGINT REFERENCES MPAs(id),
+    deleted BOOLEAN DEFAULT FALSE NOT NULL,
+    release_year INTEGER GENERATED ALWAYS AS (EXTRACT(YEAR FROM release_date)),
+    likes_count BIGINT DEFAULT 0 NOT NULL
 );
 
 CREATE TABLE IF NOT EXISTS friends (
@@ -31,7 +38,8 @@ CREATE TABLE IF NOT EXISTS friends (
 CREATE TABLE IF NOT EXISTS likes (
     id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     film_id BIGINT REFERENCES films(id) ON DELETE CASCADE,
-    user_id BIGINT REFERENCES users(id) ON DELETE CASCADE
+    user_id BIGINT REFERENCES users(id) ON DELETE CASCADE,
+    liked_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
 );
 
 CREATE TABLE IF NOT EXISTS genres (
@@ -72,6 +80,30 @@ CREATE TABLE IF NOT EXISTS film_directors (
     FOREIGN KEY (film_id) REFERENCES films(id) ON DELETE CASCADE,
     FOREIGN KEY (director_id) REFERENCES directors(id) ON DELETE CASCADE
 );
+
+-- Предрассчитанные похожие фильмы: top-N по косинусной мере совместных лайков, заполняет FilmSimilarityJob
+CREATE TABLE IF NOT EXISTS film_similarity (
+    film_id BIGINT NOT NULL,
+    similar_film_id BIGINT NOT NULL,
+    co_likes INTEGER NOT NULL,
+    score DOUBLE PRECISION NOT NULL,
+    PRIMARY KEY (film_id, similar_film_id),
+    FOREIGN KEY (film_id) REFERENCES films(id) ON DELETE CASCADE,
+    FOREIGN KEY (similar_film_id) REFERENCES films(id) ON DELETE CASCADE
+);
+
+-- Предрассчитанные рекомендации пользователя в порядке показа, заполняет UserRecommendationJob
+CREATE TABLE IF NOT EXISTS user_recommendations (
+    user_id BIGINT NOT NULL,
+    film_id BIGINT NOT NULL,
+    sort_order INTEGER NOT NULL,
+    -- Пользователь, по которому построен список; NULL, если список из популярных фильмов
+    similar_user_id BIGINT,
+    PRIMARY KEY (user_id, film_id),
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    FOREIGN KEY (film_id) REFERENCES films(id) ON DELETE CASCADE
+);
+
 CREATE TABLE IF NOT EXISTS events (
                         event_id     BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
                         timestamp    BIGINT NOT NULL,
@@ -83,3 +115,23 @@ CREATE TABLE IF NOT EXISTS events (
 
 CREATE INDEX IF NOT EXISTS idx_events_user_timestamp
     ON events(user_id, timestamp DESC);
+
+CREATE INDEX IF NOT EXISTS idx_users_deleted ON users(deleted);
+CREATE INDEX IF NOT EXISTS idx_friends_first_second ON friends(first_id, second_id);
+-- deleted идёт первым: эти индексы обслуживают и отбор неудалённых фильмов, и поиск удалённых для PurgeWorker.
+-- Отдельного индекса по deleted нет: для deleted = FALSE он совпадает со всей таблицей, но H2 выбирает его
+CREATE INDEX IF NOT EXISTS idx_films_release_year_likes ON films(deleted, release_year, likes_count DESC, id);
+CREATE INDEX IF NOT EXISTS idx_films_likes_count_id ON films(deleted, likes_count DESC, id);
+CREATE INDEX IF NOT EXISTS idx_films_name_id ON films(name, id);
+CREATE INDEX IF NOT EXISTS idx_films_release_date_id ON films(release_date, id);
+CREATE INDEX IF NOT EXISTS idx_films_duration_id ON films(duration, id);
+CREATE INDEX IF NOT EXISTS idx_likes_liked_at ON likes(liked_at);
+CREATE INDEX IF NOT EXISTS idx_likes_film_user ON likes(film_id, user_id);
+CREATE INDEX IF NOT EXISTS idx_likes_user_film ON likes(user_id, film_id);
+CREATE INDEX IF NOT EXISTS idx_film_similarity_film_score ON film_similarity(film_id, score DESC, similar_film_id);
+CREATE INDEX IF NOT EXISTS idx_user_recommendations_user_order ON user_recommendations(user_id, sort_order);
+CREATE INDEX IF NOT EXISTS idx_user_recommendations_similar ON user_recommendations(similar_user_id);
+
+CREATE INDEX IF NOT EXISTS idx_reviews_useful_id ON reviews(useful DESC, id);
+CREATE INDEX IF NOT EXISTS idx_reviews_film_useful_id ON reviews(film_id, useful DESC, id);
+CREATE INDEX IF NOT EXISTS idx_reviews_ratings_review_user ON reviews_ratings(review_id, user_id);
@@ -0,0 +1,224 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.MPA;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.dal.DirectorDbStorage;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Число коммитов и пропускная способность создания и изменения фильма с тремя жанрами и двумя режиссёрами
+ * на файловой H2: прежняя последовательность автокоммитных запросов против FilmService в одной транзакции.
+ * Коммитом считается commit() соединения и каждый изменяющий запрос в режиме autocommit.
+ * Запуск: mvn test -Pbenchmark -Dtest=FilmWriteBenchmark
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:file:./target/benchmark/film-writes",
+        "filmorate.similar.refresh-ms=3600000",
+        "filmorate.recommendations.refresh-ms=3600000",
+        "filmorate.recommendations.initial-delay-ms=3600000"
+})
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class FilmWriteBenchmark {
+    private static final int OPERATIONS = 2000;
+    private static final AtomicLong COMMITS = new AtomicLong();
+
+    // Запросы прежней записи фильма: каждый выполнялся отдельно и фиксировался сам
+    private static final String INSERT_FILM = "INSERT INTO films (name, description, release_date, duration, MPA_id)" +
+            "VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE_FILM = "UPDATE films SET name = ?, description = ?, release_date = ?, " +
+            "duration = ?, MPA_id = ? WHERE id = ?";
+    private static final String DELETE_GENRES = "DELETE FROM film_genres WHERE film_id = ?";
+    private static final String INSERT_GENRE = "INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)";
+    private static final String DELETE_DIRECTORS = "DELETE FROM film_directors WHERE film_id = ?";
+    private static final String INSERT_DIRECTOR = "INSERT INTO film_directors (film_id, director_id) VALUES (?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final FilmService filmService;
+    private final DirectorDbStorage directorStorage;
+
+    @TestConfiguration
+    static class CommitCounting {
+        @Bean
+        static BeanPostProcessor commitCountingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource dataSource ? countCommits(dataSource) : bean;
+                }
+            };
+        }
+    }
+
+    @Test
+    void filmCreateAndUpdateCommits() {
+        List<Director> directors = List.of(director("first"), director("second"));
+        Long legacyId = legacyCreate(film("legacy update", directors));
+        Long id = filmService.create(film("current update", directors)).getId();
+
+        // Первый круг прогревает JIT для обоих вариантов, в отчёт идёт второй
+        Result legacyCreate = null;
+        Result create = null;
+        Result legacyUpdate = null;
+        Result update = null;
+        for (int round = 0; round < 2; round++) {
+            legacyCreate = measure(i -> legacyCreate(film("legacy " + i, directors)));
+            create = measure(i -> filmService.create(film("current " + i, directors)));
+            legacyUpdate = measure(i -> legacyUpdate(legacyId, film("legacy update " + i, directors)));
+            update = measure(i -> {
+                Film film = film("current update " + i, directors);
+                film.setId(id);
+                filmService.update(film);
+            });
+        }
+
+        log.info("Film create: legacy {} commits/op, {} ops/s; current {} commits/op, {} ops/s",
+                legacyCreate.commitsPerOperation(), legacyCreate.operationsPerSecond(),
+                create.commitsPerOperation(), create.operationsPerSecond());
+        log.info("Film update: legacy {} commits/op, {} ops/s; current {} commits/op, {} ops/s",
+                legacyUpdate.commitsPerOperation(), legacyUpdate.operationsPerSecond(),
+                update.commitsPerOperation(), update.operationsPerSecond());
+
+        assertThat(legacyCreate.commitsPerOperation()).isEqualTo(7.0);
+        assertThat(legacyUpdate.commitsPerOperation()).isEqualTo(8.0);
+        assertThat(create.commitsPerOperation()).isEqualTo(1.0);
+        assertThat(update.commitsPerOperation()).isEqualTo(1.0);
+    }
+
+    private Long legacyCreate(Film film) {
+        // Проверка режиссёров перед записью была и раньше
+        directorStorage.findAllExistingIds(film.getDirectors().stream().map(Director::getId).toList());
+        GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(INSERT_FILM, new String[]{"id"});
+            ps.setString(1, film.getName());
+            ps.setString(2, film.getDescription());
+            ps.setObject(3, film.getReleaseDate());
+            ps.setLong(4, film.getDuration());
+            ps.setLong(5, film.getMpa().getId());
+            return ps;
+        }, keyHolder);
+        Long id = keyHolder.getKeyAs(Long.class);
+        jdbc.update(DELETE_GENRES, id);
+        film.getGenres().forEach(genre -> jdbc.update(INSERT_GENRE, id, genre.getId()));
+        film.getDirectors().forEach(director -> jdbc.update(INSERT_DIRECTOR, id, director.getId()));
+        return id;
+    }
+
+    private void legacyUpdate(Long id, Film film) {
+        directorStorage.findAllExistingIds(film.getDirectors().stream().map(Director::getId).toList());
+        jdbc.update(UPDATE_FILM, film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration(),
+                film.getMpa().getId(), id);
+        jdbc.update(DELETE_GENRES, id);
+        film.getGenres().forEach(genre -> jdbc.update(INSERT_GENRE, id, genre.getId()));
+        jdbc.update(DELETE_DIRECTORS, id);
+        film.getDirectors().forEach(director -> jdbc.update(INSERT_DIRECTOR, id, director.getId()));
+    }
+
+    private static Result measure(LongConsumer operation) {
+        COMMITS.set(0);
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            operation.accept(i);
+        }
+        long nanos = System.nanoTime() - startedAt;
+        return new Result((double) COMMITS.get() / OPERATIONS, Math.round(OPERATIONS * 1e9 / nanos));
+    }
+
+    private Director director(String name) {
+        GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement("INSERT INTO directors (name) VALUES (?)", new String[]{"id"});
+            ps.setString(1, name);
+            return ps;
+        }, keyHolder);
+        return Director.builder().id(keyHolder.getKeyAs(Long.class)).name(name).build();
+    }
+
+    private static Film film(String name, List<Director> directors) {
+        Film film = Film.builder()
+                .name(name)
+                .description("benchmark")
+                .releaseDate(LocalDate.of(2001, 1, 1))
+                .duration(100L)
+                .mpa(MPA.builder().id(1L).build())
+                .build();
+        for (long genreId = 1; genreId <= 3; genreId++) {
+            film.getGenres().add(Genre.builder().id(genreId).build());
+        }
+        film.getDirectors().addAll(directors);
+        return film;
+    }
+
+    private record Result(double commitsPerOperation, long operationsPerSecond) {
+    }
+
+    private static DataSource countCommits(DataSource target) {
+        return (DataSource) proxy(DataSource.class, target, (method, result) ->
+                result instanceof Connection connection ? countCommits(connection) : result);
+    }
+
+    private static Connection countCommits(Connection target) {
+        return (Connection) proxy(Connection.class, target, (method, result) -> {
+            if (method.getName().equals("commit")) {
+                COMMITS.incrementAndGet();
+            }
+            if (result instanceof Statement statement) {
+                Class<?> type = result instanceof PreparedStatement
+                        ? PreparedStatement.class : Statement.class;
+                return proxy(type, statement, (call, value) -> {
+                    if (Set.of("execute", "executeUpdate", "executeLargeUpdate", "executeBatch")
+                            .contains(call.getName()) && target.getAutoCommit()) {
+                        COMMITS.incrementAndGet();
+                    }
+                    return value;
+                });
+            }
+            return result;
+        });
+    }
+
+    private static Object proxy(Class<?> type, Object target, AfterCall afterCall) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            try {
+                return afterCall.apply(method, method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface AfterCall {
+        Object apply(Method method, Object result) throws Exception;
+    }
+}
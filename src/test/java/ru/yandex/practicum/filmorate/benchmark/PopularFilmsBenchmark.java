@@ -0,0 +1,111 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.storage.dal.FilmDbStorage;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * План и время запроса популярных фильмов за год на 1 000 000 фильмов: прежний запрос с EXTRACT(YEAR ...),
+ * соединениями и GROUP BY по лайкам против текущего по release_year и likes_count.
+ * Запуск: mvn test -Pbenchmark -Dtest=PopularFilmsBenchmark
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        // Без OPTIMIZE_REUSE_RESULTS повторный одинаковый запрос отдаёт прошлый результат и замер ничего не значит
+        "spring.datasource.url=jdbc:h2:file:./target/benchmark/popular;OPTIMIZE_REUSE_RESULTS=FALSE",
+        "filmorate.db.query-timeout.list=600",
+        "filmorate.db.query-timeout.analytic=600",
+        "filmorate.similar.refresh-ms=3600000",
+        "filmorate.recommendations.refresh-ms=3600000",
+        "filmorate.recommendations.initial-delay-ms=3600000"
+})
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class PopularFilmsBenchmark {
+    private static final int FILMS = 1_000_000;
+    private static final int YEAR = 1999;
+
+    // Запрос до перехода на release_year (без изменений, кроме параметров)
+    private static final String LEGACY_QUERY = """
+            SELECT
+            f.id,
+            f.name,
+            f.description,
+            f.release_date,
+            f.duration,
+            f.MPA_id,
+            COUNT(DISTINCT l.user_id) AS likes_count
+            FROM films f
+            LEFT JOIN likes l ON f.id = l.film_id
+            LEFT JOIN film_genres fg ON f.id = fg.film_id
+            LEFT JOIN genres g ON fg.genre_id = g.id
+            LEFT JOIN MPAs m ON f.MPA_id = m.id
+             WHERE f.deleted = FALSE AND EXTRACT(YEAR FROM f.release_date) = ?
+             GROUP BY f.id, f.name, f.description, f.release_date, f.duration, f.MPA_id
+            ORDER BY likes_count DESC LIMIT 10""";
+    // Текст, который строит FilmDbStorage.getMostPopularFilms
+    private static final String CURRENT_QUERY = "SELECT f.* FROM films f WHERE f.deleted = FALSE " +
+            "AND f.release_year = ? ORDER BY f.deleted, f.release_year, f.likes_count DESC, f.id LIMIT 10";
+    private static final String CURRENT_ALL_YEARS_QUERY = "SELECT f.* FROM films f WHERE f.deleted = FALSE " +
+            "ORDER BY f.deleted, f.likes_count DESC, f.id LIMIT 10";
+
+    private final JdbcTemplate jdbc;
+    private final FilmDbStorage filmStorage;
+
+    @Test
+    void popularByYearOnMillionFilms() {
+        fill();
+
+        String legacyPlan = jdbc.queryForObject("EXPLAIN " + LEGACY_QUERY, String.class, YEAR);
+        String currentPlan = jdbc.queryForObject("EXPLAIN " + CURRENT_QUERY, String.class, YEAR);
+        log.info("Legacy plan:\n{}", legacyPlan);
+        log.info("Current plan:\n{}", currentPlan);
+        String allYearsPlan = jdbc.queryForObject("EXPLAIN " + CURRENT_ALL_YEARS_QUERY, String.class);
+        log.info("Current plan without year:\n{}", allYearsPlan);
+
+        long legacyNanos = time(() -> jdbc.queryForList(LEGACY_QUERY, YEAR), 3);
+        List<Map<String, Object>> top = jdbc.queryForList(CURRENT_QUERY, YEAR);
+        long currentNanos = time(() -> filmStorage.getMostPopularFilms(10, null, YEAR), 20);
+        long allYearsNanos = time(() -> filmStorage.getMostPopularFilms(10, null, null), 20);
+        log.info("Popular films for {} of {} films: legacy {} ms, current {} ms, current without year {} ms",
+                YEAR, FILMS, legacyNanos / 1_000_000.0, currentNanos / 1_000_000.0, allYearsNanos / 1_000_000.0);
+
+        // Прежний запрос читает все неудалённые фильмы и вычисляет год для каждого
+        assertThat(legacyPlan).doesNotContainIgnoringCase("index sorted");
+        assertThat(currentPlan).containsIgnoringCase("idx_films_release_year_likes").contains("/* index sorted */");
+        assertThat(allYearsPlan).containsIgnoringCase("idx_films_likes_count_id").contains("/* index sorted */");
+        assertThat(top).hasSize(10);
+    }
+
+    private void fill() {
+        jdbc.update("INSERT INTO users (email, login, name, birthday) " +
+                "SELECT 'u' || X || '@test.ru', 'u' || X, 'u' || X, DATE '1990-01-01' FROM SYSTEM_RANGE(1, 1000)");
+        jdbc.update("INSERT INTO films (name, description, release_date, duration, MPA_id, likes_count) " +
+                "SELECT 'film ' || X, 'benchmark', DATEADD('DAY', -MOD(X * 7919, 36500), DATE '2024-12-31'), " +
+                "90, 1 + MOD(X, 5), MOD(X, 2) FROM SYSTEM_RANGE(1, " + FILMS + ")");
+        jdbc.update("INSERT INTO film_genres (film_id, genre_id) SELECT id, 1 + MOD(id, 6) FROM films");
+        // У каждого второго фильма один лайк: likes_count совпадает с таблицей likes
+        jdbc.update("INSERT INTO likes (film_id, user_id) SELECT id, 1 + MOD(id, 1000) FROM films " +
+                "WHERE MOD(id, 2) = 1");
+        jdbc.execute("ANALYZE");
+    }
+
+    private static long time(Runnable query, int runs) {
+        query.run();
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            query.run();
+        }
+        return (System.nanoTime() - startedAt) / runs;
+    }
+}
@@ -0,0 +1,45 @@
+package ru.yandex.practicum.filmorate.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveLimiterTests {
+    private static final long TARGET = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void shouldRejectAboveLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 2, TARGET);
+
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+
+        limiter.release(TARGET / 2);
+
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void shouldShrinkOnSlowResponsesAndRecoverOnFastOnes() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 2, 10, TARGET);
+
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire();
+            limiter.release(TARGET * 2);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        assertThat(limiter.isAtMinimum()).isTrue();
+
+        for (int i = 0; i < 200; i++) {
+            limiter.tryAcquire();
+            limiter.release(TARGET / 2);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(10);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+}
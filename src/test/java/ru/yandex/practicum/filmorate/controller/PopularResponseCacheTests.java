@@ -0,0 +1,67 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.service.EntityVersions;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class PopularResponseCacheTests {
+    private final PopularResponseCache popularResponseCache;
+    private final EntityVersions entityVersions;
+
+    @Test
+    void testServesBytesUntilFilmsChange() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        List<Film> films = List.of(Film.builder().id(1L).name("test").build());
+
+        ResponseEntity<byte[]> first = popularResponseCache.get(7, null, 1999, null, () -> {
+            loads.incrementAndGet();
+            return films;
+        });
+        ResponseEntity<byte[]> second = popularResponseCache.get(7, null, 1999, "gzip", () -> {
+            loads.incrementAndGet();
+            return films;
+        });
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(new String(first.getBody())).contains("\"name\":\"test\"");
+        assertThat(second.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+
+        entityVersions.bump(EntityVersions.Type.FILM, 1L);
+        Thread.sleep(250);
+        popularResponseCache.get(7, null, 1999, null, () -> {
+            loads.incrementAndGet();
+            return films;
+        });
+
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testGetIfFreshReturnsOnlyBuiltResponses() throws InterruptedException {
+        List<Film> films = List.of(Film.builder().id(1L).name("fresh").build());
+
+        assertThat(popularResponseCache.getIfFresh(8, null, 2001, null)).isEmpty();
+        popularResponseCache.get(8, null, 2001, null, () -> films);
+        assertThat(popularResponseCache.getIfFresh(8, null, 2001, "gzip")).get()
+                .extracting(response -> response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))
+                .isEqualTo("gzip");
+
+        entityVersions.bump(EntityVersions.Type.FILM, 1L);
+        Thread.sleep(250);
+        assertThat(popularResponseCache.getIfFresh(8, null, 2001, null)).isEmpty();
+    }
+}
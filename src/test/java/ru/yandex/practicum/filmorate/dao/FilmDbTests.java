@@ -5,14 +5,34 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmCursor;
+import ru.yandex.practicum.filmorate.model.FilmField;
+import ru.yandex.practicum.filmorate.model.FilmListQuery;
+import ru.yandex.practicum.filmorate.model.FilmSort;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MPA;
+import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.dal.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.dal.FilmSimilarityJob;
+import ru.yandex.practicum.filmorate.storage.dal.FriendsRepository;
+import ru.yandex.practicum.filmorate.storage.dal.LikesRepository;
+import ru.yandex.practicum.filmorate.storage.dal.QueryCancelledException;
+import ru.yandex.practicum.filmorate.storage.dal.QueryContext;
+import ru.yandex.practicum.filmorate.storage.dal.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.dal.UserRecommendationJob;
+import ru.yandex.practicum.filmorate.storage.film.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.storage.film.LikeCounters;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
@@ -21,6 +41,51 @@ import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 public class FilmDbTests {
     private final FilmDbStorage filmStorage;
+    private final UserDbStorage userStorage;
+    private final LikesRepository likesRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final LikeCounters likeCounters;
+    private final FilmSimilarityJob filmSimilarityJob;
+    private final FriendsRepository friendsRepository;
+    private final UserRecommendationJob userRecommendationJob;
+
+    @Test
+    void testPopularByYearUsesReleaseYearIndex() {
+        Film film = filmStorage.create(Film.builder()
+                .name("year")
+                .description("year")
+                .releaseDate(LocalDate.of(1987, 3, 1))
+                .duration(90L)
+                .mpa(MPA.builder().id(1L).build())
+                .build());
+        Genre genre = Genre.builder().id(2L).build();
+        film.getGenres().add(genre);
+        filmStorage.update(film);
+
+        List<Film> popular = filmStorage.getMostPopularFilms(10, 2, 1987);
+
+        assertThat(popular).extracting(Film::getId).containsExactly(film.getId());
+        assertThat(filmStorage.getMostPopularFilms(10, 1, 1987)).isEmpty();
+
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT id FROM films WHERE deleted = FALSE " +
+                "AND release_year = 1987 ORDER BY deleted, release_year, likes_count DESC, id LIMIT 10", String.class);
+        assertThat(plan).containsIgnoringCase("idx_films_release_year_likes").contains("/* index sorted */");
+    }
+
+    @Test
+    void testCancelledRequestDoesNotStartQueries() {
+        QueryContext.Cancellation cancellation = new QueryContext.Cancellation();
+        QueryContext.bind(cancellation);
+        try {
+            cancellation.cancel();
+
+            assertThatThrownBy(filmStorage::findAll).isInstanceOf(QueryCancelledException.class);
+        } finally {
+            QueryContext.unbind();
+        }
+
+        assertThat(filmStorage.findAll()).isNotNull();
+    }
 
     @Test
     void testCreateFilm() {
@@ -158,4 +223,369 @@ public class FilmDbTests {
         assertThat(found).isNotEmpty();
         assertThat(found.getFirst().getName()).containsIgnoringCase("matrix");
     }
+
+    @Test
+    void testFindByIdWithFields() {
+        Film film = Film.builder()
+                .name("Projection")
+                .description("test")
+                .releaseDate(LocalDate.of(2014, 11, 7))
+                .duration(169L)
+                .mpa(MPA.builder().id(2L).name("PG").build())
+                .build();
+
+        film.getGenres().add(Genre.builder().id(1L).name("Комедия").build());
+
+        Film created = filmStorage.create(film);
+        Film projected = filmStorage.findById(created.getId(), EnumSet.of(FilmField.ID, FilmField.NAME)).get();
+        Film full = filmStorage.findById(created.getId()).get();
+
+        assertThat(projected.getName()).isEqualTo("Projection");
+        assertThat(projected.getGenres()).isEmpty();
+        assertThat(projected.getMpa().getName()).isNull();
+        assertThat(full.getGenres()).hasSize(1);
+        assertThat(full.getMpa().getName()).isEqualTo("PG");
+    }
+
+    @Test
+    void testFindByIdReflectsLikesAfterCaching() {
+        Film film = filmStorage.create(Film.builder()
+                .name("Cached Film")
+                .description("Description")
+                .releaseDate(LocalDate.of(2010, 10, 10))
+                .duration(100L)
+                .mpa(MPA.builder().id(1L).name("G").build())
+                .build());
+        User user = userStorage.create(User.builder()
+                .email("cache@test.ru")
+                .login("cacheLogin")
+                .name("Cache User")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+
+        assertThat(filmStorage.findById(film.getId()).get().getLikesCount()).isEqualTo(0L);
+
+        likesRepository.create(film.getId(), user.getId());
+        assertThat(filmStorage.findById(film.getId()).get().getLikesCount()).isEqualTo(1L);
+
+        filmStorage.findById(film.getId()).get().setName("Changed outside of storage");
+        assertThat(filmStorage.findById(film.getId()).get().getName()).isEqualTo("Cached Film");
+    }
+
+    @Test
+    void testFacetIndexCombinesFiltersAndCountsFacets() {
+        Film drama = filmStorage.create(Film.builder()
+                .name("facet drama")
+                .description("facet")
+                .releaseDate(LocalDate.of(1912, 5, 1))
+                .duration(90L)
+                .mpa(MPA.builder().id(1L).build())
+                .build());
+        drama.getGenres().add(Genre.builder().id(1L).build());
+        drama.getGenres().add(Genre.builder().id(2L).build());
+        filmStorage.update(drama);
+        Film comedy = filmStorage.create(Film.builder()
+                .name("facet comedy")
+                .description("facet")
+                .releaseDate(LocalDate.of(1915, 5, 1))
+                .duration(90L)
+                .mpa(MPA.builder().id(2L).build())
+                .build());
+        comedy.getGenres().add(Genre.builder().id(1L).build());
+        filmStorage.update(comedy);
+        User user = userStorage.create(User.builder()
+                .email("facet@test.ru")
+                .login("facetLogin")
+                .name("Facet User")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+        likesRepository.create(comedy.getId(), user.getId());
+
+        FilmFacetIndex index = new FilmFacetIndex(jdbcTemplate, likeCounters, 0);
+
+        FilmFacetIndex.Result any = index.search(
+                new FilmFacetIndex.Filter(List.of(1L, 2L), false, null, 1910, null), 10, 0);
+        assertThat(any.getFilmIds()).containsExactly(comedy.getId(), drama.getId());
+        assertThat(any.getFacets().get("mpa")).isEqualTo(Map.of(1L, 1, 2L, 1));
+        assertThat(any.getFacets().get("genres")).isEqualTo(Map.of(1L, 2, 2L, 1));
+        assertThat(any.getFacets().get("decades")).isEqualTo(Map.of(1910L, 2));
+
+        FilmFacetIndex.Result all = index.search(
+                new FilmFacetIndex.Filter(List.of(1L, 2L), true, null, 1910, null), 10, 0);
+        assertThat(all.getFilmIds()).containsExactly(drama.getId());
+
+        FilmFacetIndex.Result byMpa = index.search(
+                new FilmFacetIndex.Filter(null, false, 2L, 1910, null), 1, 0);
+        assertThat(byMpa.getFilmIds()).containsExactly(comedy.getId());
+    }
+
+    @Test
+    void testFindPageOrdersCyrillicNamesAndContinuesFromCursor() {
+        for (String name : List.of("Жук", "ёж", "Арбуз")) {
+            filmStorage.create(Film.builder()
+                    .name(name)
+                    .description("page")
+                    .releaseDate(LocalDate.of(2001, 1, 1))
+                    .duration(7775L)
+                    .mpa(MPA.builder().id(1L).build())
+                    .build());
+        }
+        FilmListQuery.FilmListQueryBuilder query = FilmListQuery.builder()
+                .sort(FilmSort.NAME)
+                .durationMin(7771L)
+                .durationMax(7779L)
+                .count(2);
+
+        List<Film> first = filmStorage.findPage(query.build(), FilmField.ALL);
+        assertThat(first).extracting(Film::getName).containsExactly("Арбуз", "ёж");
+
+        FilmCursor cursor = FilmCursor.decode(FilmCursor.after(first.getLast(), FilmSort.NAME).encode(), FilmSort.NAME);
+        List<Film> second = filmStorage.findPage(query.after(cursor).build(), FilmField.ALL);
+        assertThat(second).extracting(Film::getName).containsExactly("Жук");
+
+        List<Film> descending = filmStorage.findPage(query.after(null).descending(true).count(3).build(), FilmField.ALL);
+        assertThat(descending).extracting(Film::getName).containsExactly("Жук", "ёж", "Арбуз");
+
+        String plan = jdbcTemplate.queryForObject(
+                "EXPLAIN SELECT id FROM films WHERE duration >= 7771 ORDER BY duration, id", String.class);
+        assertThat(plan).containsIgnoringCase("idx_films_duration_id");
+    }
+
+    @Test
+    void testFindPageByLikesDoesNotRepeatFilmsWithPendingLikes() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Long id = filmStorage.create(Film.builder()
+                    .name("likes page " + i)
+                    .description("page")
+                    .releaseDate(LocalDate.of(2001, 1, 1))
+                    .duration(7785L)
+                    .mpa(MPA.builder().id(1L).build())
+                    .build()).getId();
+            likeCounters.add(id, 4 - i);
+            ids.add(id);
+        }
+        likeCounters.flush();
+        // Незаписанные лайки: первый запрос страницы должен учесть их в порядке
+        likeCounters.add(ids.get(1), 5);
+        FilmListQuery.FilmListQueryBuilder query = FilmListQuery.builder()
+                .sort(FilmSort.LIKES)
+                .descending(true)
+                .durationMin(7785L)
+                .durationMax(7785L)
+                .count(2);
+
+        List<Film> first = filmStorage.findPage(query.build(), FilmField.ALL);
+        assertThat(first).extracting(Film::getId).containsExactly(ids.get(1), ids.get(0));
+        assertThat(first).allSatisfy(film -> assertThat(film.getLikesCount()).isEqualTo(film.getStoredLikesCount()));
+
+        // Лайк последнему фильму страницы после её чтения не должен вернуть его на следующей странице
+        likeCounters.add(ids.get(0), 1);
+        FilmCursor cursor = FilmCursor.decode(FilmCursor.after(first.getLast(), FilmSort.LIKES).encode(), FilmSort.LIKES);
+        assertThat(cursor.getValue()).isEqualTo(4L);
+        List<Film> second = filmStorage.findPage(query.after(cursor).build(), FilmField.ALL);
+        assertThat(second).extracting(Film::getId).containsExactly(ids.get(2), ids.get(3));
+
+        likeCounters.add(ids.get(3), 1);
+        Film pending = filmStorage.findByIds(List.of(ids.get(3)), FilmField.ALL).getFirst();
+        assertThat(FilmCursor.after(pending, FilmSort.LIKES).getValue()).isEqualTo(pending.getStoredLikesCount());
+    }
+
+    @Test
+    void testSimilarFilmsAreReadFromPrecomputedTable() {
+        List<Film> films = new ArrayList<>();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            films.add(filmStorage.create(Film.builder()
+                    .name("similar " + i)
+                    .description("similar")
+                    .releaseDate(LocalDate.of(2005, 1, 1))
+                    .duration(100L)
+                    .mpa(MPA.builder().id(1L).build())
+                    .build()));
+            users.add(userStorage.create(User.builder()
+                    .email("similar" + i + "@test.ru")
+                    .login("similar" + i)
+                    .name("Similar " + i)
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()));
+        }
+        Long first = films.get(0).getId();
+        Long second = films.get(1).getId();
+        Long third = films.get(2).getId();
+        likesRepository.create(first, users.get(0).getId());
+        likesRepository.create(second, users.get(0).getId());
+        likesRepository.create(first, users.get(1).getId());
+        likesRepository.create(second, users.get(1).getId());
+        likesRepository.create(first, users.get(2).getId());
+        likesRepository.create(third, users.get(2).getId());
+
+        // Счётчики не сброшены: мера считается по самой таблице likes
+        filmSimilarityJob.refresh();
+        assertThat(filmStorage.findSimilar(first, 10, FilmField.ALL)).extracting(Film::getId)
+                .containsExactly(second, third);
+        assertThat(filmStorage.findSimilar(third, 10, FilmField.ALL)).extracting(Film::getId)
+                .containsExactly(first);
+
+        // Пересчитываются только фильм с изменившимися лайками и фильмы того же пользователя
+        likesRepository.delete(third, users.get(2).getId());
+        filmSimilarityJob.refresh();
+        assertThat(filmStorage.findSimilar(first, 10, FilmField.ALL)).extracting(Film::getId)
+                .containsExactly(second);
+        assertThat(filmStorage.findSimilar(third, 10, FilmField.ALL)).isEmpty();
+    }
+
+    @Test
+    void testGroupFilmsFromLikedBitmaps() {
+        List<Film> films = new ArrayList<>();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            films.add(filmStorage.create(Film.builder()
+                    .name("group " + i)
+                    .description("group")
+                    .releaseDate(LocalDate.of(2010, 1, 1))
+                    .duration(90L)
+                    .mpa(MPA.builder().id(1L).build())
+                    .build()));
+            users.add(userStorage.create(User.builder()
+                    .email("group" + i + "@test.ru")
+                    .login("group" + i)
+                    .name("Group " + i)
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()));
+        }
+        Long first = users.get(0).getId();
+        Long second = users.get(1).getId();
+        likesRepository.create(films.get(0).getId(), first);
+        likesRepository.create(films.get(1).getId(), first);
+        likesRepository.create(films.get(0).getId(), second);
+        likesRepository.create(films.get(1).getId(), second);
+        // Друг первого пользователя и посторонний, который только поднимает число лайков
+        friendsRepository.create(first, users.get(2).getId());
+        likesRepository.create(films.get(0).getId(), users.get(2).getId());
+        likesRepository.create(films.get(2).getId(), users.get(2).getId());
+        likesRepository.create(films.get(3).getId(), users.get(2).getId());
+        likesRepository.create(films.get(3).getId(), users.get(3).getId());
+
+        Map<Long, BitSet> liked = likesRepository.findLikedFilmsByUserIds(List.of(first, second));
+        BitSet common = (BitSet) liked.get(first).clone();
+        common.and(liked.get(second));
+        List<Long> commonIds = common.stream().mapToObj(Long::valueOf).toList();
+        assertThat(filmStorage.findTopByIds(commonIds, commonIds.size(), FilmField.ALL)).extracting(Film::getId)
+                .containsExactly(films.get(0).getId(), films.get(1).getId());
+
+        BitSet recommended = likesRepository.findLikedFilmsOfFriends(List.of(first, second));
+        liked.values().forEach(recommended::andNot);
+        List<Long> recommendedIds = recommended.stream().mapToObj(Long::valueOf).toList();
+        assertThat(filmStorage.findTopByIds(recommendedIds, 10, FilmField.ALL)).extracting(Film::getId)
+                .containsExactly(films.get(3).getId(), films.get(2).getId());
+        assertThat(filmStorage.findTopByIds(recommendedIds, 1, FilmField.ALL)).extracting(Film::getId)
+                .containsExactly(films.get(3).getId());
+    }
+
+    @Test
+    void testRecommendationsArePrecomputedForChangedUsers() {
+        List<Film> films = new ArrayList<>();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            films.add(filmStorage.create(Film.builder()
+                    .name("recommended " + i)
+                    .description("recommended")
+                    .releaseDate(LocalDate.of(2015, 1, 1))
+                    .duration(95L)
+                    .mpa(MPA.builder().id(1L).build())
+                    .build()));
+            users.add(userStorage.create(User.builder()
+                    .email("recommended" + i + "@test.ru")
+                    .login("recommended" + i)
+                    .name("Recommended " + i)
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()));
+        }
+        Long user = users.get(0).getId();
+        likesRepository.create(films.get(0).getId(), user);
+        likesRepository.create(films.get(1).getId(), user);
+        likesRepository.create(films.get(0).getId(), users.get(1).getId());
+        likesRepository.create(films.get(2).getId(), users.get(1).getId());
+        likeCounters.flush();
+
+        userRecommendationJob.refresh();
+        assertThat(filmStorage.getRecommendationFilms(user)).extracting(Film::getId)
+                .containsExactly(films.get(2).getId());
+
+        // Похожему пользователю больше нечего предложить - список заполняется популярными фильмами без лайка
+        likesRepository.create(films.get(2).getId(), user);
+        userRecommendationJob.refresh();
+        assertThat(filmStorage.getRecommendationFilms(user)).isNotEmpty()
+                .extracting(Film::getId)
+                .doesNotContain(films.get(0).getId(), films.get(1).getId(), films.get(2).getId());
+
+        // Пользователь без лайков ничего не получает из таблицы, для него есть список популярных
+        userRecommendationJob.refresh();
+        assertThat(filmStorage.getRecommendationFilms(users.get(2).getId())).isEmpty();
+        assertThat(userRecommendationJob.popularFilmIds()).isNotEmpty()
+                .hasSizeLessThanOrEqualTo(userRecommendationJob.size());
+    }
+
+    @Test
+    void testRecommendationsFollowChangesOfSimilarUser() {
+        List<Film> films = new ArrayList<>();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            films.add(filmStorage.create(Film.builder()
+                    .name("neighbour " + i)
+                    .description("neighbour")
+                    .releaseDate(LocalDate.of(2016 + i, 1, 1))
+                    .duration(95L)
+                    .mpa(MPA.builder().id(1L).build())
+                    .build()));
+        }
+        for (int i = 0; i < 2; i++) {
+            users.add(userStorage.create(User.builder()
+                    .email("neighbour" + i + "@test.ru")
+                    .login("neighbour" + i)
+                    .name("Neighbour " + i)
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()));
+        }
+        Long user = users.get(0).getId();
+        Long similar = users.get(1).getId();
+        likesRepository.create(films.get(0).getId(), user);
+        likesRepository.create(films.get(1).getId(), user);
+        likesRepository.create(films.get(0).getId(), similar);
+        likesRepository.create(films.get(1).getId(), similar);
+        likesRepository.create(films.get(2).getId(), similar);
+        userRecommendationJob.refresh();
+        assertThat(filmStorage.getRecommendationFilms(user)).extracting(Film::getId)
+                .containsExactly(films.get(2).getId());
+
+        // Лайк похожего пользователя пересчитывает список того, кому он был похож
+        likesRepository.create(films.get(3).getId(), similar);
+        userRecommendationJob.refresh();
+        assertThat(filmStorage.getRecommendationFilms(user)).extracting(Film::getId)
+                .containsExactly(films.get(3).getId(), films.get(2).getId());
+
+        userStorage.deleteById(similar);
+        userRecommendationJob.refresh();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_recommendations " +
+                "WHERE user_id = ? AND similar_user_id = ?", Long.class, user, similar)).isZero();
+    }
+
+    @Test
+    void testFindByIdsKeepsCallerOrderAndSkipsMissing() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(filmStorage.create(Film.builder()
+                    .name("by ids " + i)
+                    .description("by ids")
+                    .releaseDate(LocalDate.of(2001, 1, 1))
+                    .duration(80L)
+                    .mpa(MPA.builder().id(1L).build())
+                    .build()).getId());
+        }
+
+        assertThat(filmStorage.findByIds(List.of(ids.get(2), Long.MAX_VALUE, ids.get(0), ids.get(1)), FilmField.ALL))
+                .extracting(Film::getId)
+                .containsExactly(ids.get(2), ids.get(0), ids.get(1));
+    }
 }
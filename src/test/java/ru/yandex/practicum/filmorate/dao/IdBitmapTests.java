@@ -0,0 +1,56 @@
+package ru.yandex.practicum.filmorate.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.storage.dal.IdBitmap;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class IdBitmapTests {
+    private final PlatformTransactionManager transactionManager;
+
+    @Test
+    void testRolledBackChangesAreDiscarded() {
+        IdBitmap bitmap = new IdBitmap("films");
+        bitmap.add(6);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            bitmap.add(5);
+            bitmap.remove(6);
+            // Транзакция видит свои изменения
+            assertThat(bitmap.contains(5)).isTrue();
+            assertThat(bitmap.contains(6)).isFalse();
+            status.setRollbackOnly();
+        });
+
+        assertThat(bitmap.contains(5)).isFalse();
+        assertThat(bitmap.contains(6)).isTrue();
+    }
+
+    @Test
+    void testOtherThreadsSeeChangesOnlyAfterCommit() {
+        IdBitmap bitmap = new IdBitmap("users");
+        bitmap.add(8);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            bitmap.add(7);
+            bitmap.remove(8);
+            assertThat(CompletableFuture.supplyAsync(() -> bitmap.contains(7)).join()).isFalse();
+            assertThat(CompletableFuture.supplyAsync(() -> bitmap.contains(8)).join()).isTrue();
+        });
+
+        assertThat(CompletableFuture.supplyAsync(() -> bitmap.contains(7)).join()).isTrue();
+        assertThat(CompletableFuture.supplyAsync(() -> bitmap.contains(8)).join()).isFalse();
+        assertThat(bitmap.cardinality()).isEqualTo(1);
+    }
+}
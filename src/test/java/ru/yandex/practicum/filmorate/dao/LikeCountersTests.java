@@ -0,0 +1,90 @@
+package ru.yandex.practicum.filmorate.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MPA;
+import ru.yandex.practicum.filmorate.storage.dal.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeCounters;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class LikeCountersTests {
+    private static final int THREADS = 16;
+    private static final int LIKES_PER_THREAD = 5_000;
+
+    private final LikeCounters likeCounters;
+    private final FilmDbStorage filmStorage;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testConcurrentLikesAndFlushesLoseNoUpdates() throws Exception {
+        Film film = filmStorage.create(Film.builder()
+                .name("premiere")
+                .description("premiere")
+                .releaseDate(LocalDate.of(2024, 1, 1))
+                .duration(120L)
+                .mpa(MPA.builder().id(1L).build())
+                .build());
+        Long filmId = film.getId();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean liking = new AtomicBoolean(true);
+        try {
+            List<Future<?>> likers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                likers.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < LIKES_PER_THREAD; j++) {
+                        likeCounters.add(filmId, 1);
+                    }
+                    return null;
+                }));
+            }
+            // Сброс в базу идёт одновременно с лайками, как по расписанию
+            Future<?> flusher = executor.submit(() -> {
+                start.await();
+                while (liking.get()) {
+                    likeCounters.flush();
+                }
+                return null;
+            });
+
+            start.countDown();
+            for (Future<?> liker : likers) {
+                liker.get(30, TimeUnit.SECONDS);
+            }
+            liking.set(false);
+            flusher.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        likeCounters.flush();
+
+        Long persisted = jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE id = ?", Long.class, filmId);
+        assertThat(persisted).isEqualTo((long) THREADS * LIKES_PER_THREAD);
+        assertThat(likeCounters.pending(filmId)).isZero();
+        // Чтение мимо кэша фильмов: значение из базы плюс ещё не записанные лайки
+        assertThat(filmStorage.findAll()).filteredOn(f -> f.getId().equals(filmId))
+                .extracting(Film::getLikesCount)
+                .containsExactly((long) THREADS * LIKES_PER_THREAD);
+    }
+}
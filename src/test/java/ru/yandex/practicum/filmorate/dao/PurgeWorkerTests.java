@@ -0,0 +1,111 @@
+package ru.yandex.practicum.filmorate.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MPA;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.dal.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.dal.LikesRepository;
+import ru.yandex.practicum.filmorate.storage.dal.PurgeWorker;
+import ru.yandex.practicum.filmorate.storage.dal.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeCounters;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {"filmorate.purge.async=true", "filmorate.purge.interval-ms=3600000"})
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class PurgeWorkerTests {
+    private final UserDbStorage userStorage;
+    private final FilmDbStorage filmStorage;
+    private final LikesRepository likesRepository;
+    private final PurgeWorker purgeWorker;
+    private final LikeCounters likeCounters;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Test
+    void testDeletedUserIsHiddenAndPurged() {
+        User user = userStorage.create(User.builder()
+                .email("purge@test.ru")
+                .login("purge")
+                .name("Purge User")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+        Film film = filmStorage.create(Film.builder()
+                .name("Purge Film")
+                .description("Description")
+                .releaseDate(LocalDate.of(2010, 10, 10))
+                .duration(100L)
+                .mpa(MPA.builder().id(1L).name("G").build())
+                .build());
+        likesRepository.create(film.getId(), user.getId());
+
+        assertThat(userStorage.deleteById(user.getId())).isTrue();
+
+        assertThat(userStorage.containsUser(user.getId())).isFalse();
+        assertThat(userStorage.findById(user.getId())).isEmpty();
+        assertThat(likesRepository.findAllLikesByFilmId(film.getId())).contains(user.getId());
+
+        purgeWorker.purge();
+
+        assertThat(likesRepository.findAllLikesByFilmId(film.getId())).doesNotContain(user.getId());
+        assertThat(userStorage.deleteById(user.getId())).isFalse();
+    }
+
+    @Test
+    void testFailedPurgeDoesNotUncountLikesTwice() {
+        User user = userStorage.create(User.builder()
+                .email("purge-twice@test.ru")
+                .login("purgetwice")
+                .name("Purge Twice")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+        User other = userStorage.create(User.builder()
+                .email("purge-other@test.ru")
+                .login("purgeother")
+                .name("Purge Other")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+        Film film = filmStorage.create(Film.builder()
+                .name("Purge Twice Film")
+                .description("Description")
+                .releaseDate(LocalDate.of(2010, 10, 10))
+                .duration(100L)
+                .mpa(MPA.builder().id(1L).name("G").build())
+                .build());
+        likesRepository.create(film.getId(), user.getId());
+        likesRepository.create(film.getId(), other.getId());
+        likeCounters.flush();
+        assertThat(storedLikes(film.getId())).isEqualTo(2);
+
+        // Строка, ссылающаяся на лайк без каскада, роняет удаление лайков посреди очистки
+        jdbcTemplate.execute("CREATE TABLE like_guard (like_id BIGINT REFERENCES likes(id))");
+        try {
+            jdbcTemplate.update("INSERT INTO like_guard (like_id) SELECT id FROM likes WHERE user_id = ?", user.getId());
+            assertThat(userStorage.deleteById(user.getId())).isTrue();
+
+            assertThatThrownBy(purgeWorker::purge).isInstanceOf(DataAccessException.class);
+            assertThat(storedLikes(film.getId())).isEqualTo(2);
+        } finally {
+            jdbcTemplate.execute("DROP TABLE like_guard");
+        }
+
+        purgeWorker.purge();
+        purgeWorker.purge();
+        assertThat(storedLikes(film.getId())).isEqualTo(1);
+        assertThat(likesRepository.findAllLikesByFilmId(film.getId())).containsExactly(other.getId());
+    }
+
+    private long storedLikes(Long filmId) {
+        return jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE id = ?", Long.class, filmId);
+    }
+}
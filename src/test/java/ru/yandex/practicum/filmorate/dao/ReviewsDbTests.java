@@ -11,15 +11,20 @@ import org.springframework.boot.test.context.SpringBootTest;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.MPA;
 import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.model.ReviewCursor;
+import ru.yandex.practicum.filmorate.model.ReviewRating;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.dal.FilmDbStorage;
 import ru.yandex.practicum.filmorate.storage.dal.ReviewsDbStorage;
 import ru.yandex.practicum.filmorate.storage.dal.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.review.ReviewLeaderboard;
+import ru.yandex.practicum.filmorate.storage.review.ReviewRatingsCache;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 
@@ -30,6 +35,8 @@ public class ReviewsDbTests {
     private final ReviewsDbStorage reviewsDbStorage;
     private final FilmDbStorage filmDbStorage;
     private final UserDbStorage userDbStorage;
+    private final ReviewLeaderboard reviewLeaderboard;
+    private final ReviewRatingsCache reviewRatingsCache;
 
     @BeforeEach
     public void setup() {
@@ -53,6 +60,7 @@ public class ReviewsDbTests {
 
     @AfterEach
     public void teardown() {
+        reviewLeaderboard.invalidateAll();
         reviewsDbStorage.deleteReviewByFilmConnection(1L);
         reviewsDbStorage.deleteReviewByUserConnection(1L);
     }
@@ -240,6 +248,104 @@ public class ReviewsDbTests {
         assertThat(found.containsAll(reviewsNotInResult)).isFalse();
     }
 
+    @Test
+    void testFindPage() {
+        List<Review> target = new ArrayList<>();
+        for (int useful : new int[]{5, 10, 5, 0}) {
+            target.add(reviewsDbStorage.create(Review.builder()
+                    .content("test" + useful)
+                    .isPositive(true)
+                    .userId(1L)
+                    .filmId(1L)
+                    .useful(useful)
+                    .build()));
+        }
+
+        List<Review> first = reviewsDbStorage.findPage(1L, null, 2).stream().toList();
+
+        assertThat(first.size()).isEqualTo(2);
+        assertThat(first.getFirst()).isEqualTo(target.get(1));
+        assertThat(first.getLast()).isEqualTo(target.get(0));
+
+        ReviewCursor cursor = ReviewCursor.decode(ReviewCursor.after(first.getLast()).encode());
+        List<Review> second = reviewsDbStorage.findPage(1L, cursor, 2).stream().toList();
+
+        assertThat(second.size()).isEqualTo(2);
+        assertThat(second.getFirst()).isEqualTo(target.get(2));
+        assertThat(second.getLast()).isEqualTo(target.get(3));
+
+        List<Review> last = reviewsDbStorage.findPage(null, ReviewCursor.after(second.getLast()), 2).stream().toList();
+
+        assertThat(last.isEmpty()).isTrue();
+    }
+
+    @Test
+    void testLeaderboardFollowsUsefulChanges() {
+        List<Review> target = new ArrayList<>();
+        for (int useful : new int[]{5, 10, 0}) {
+            target.add(reviewsDbStorage.create(Review.builder()
+                    .content("test" + useful)
+                    .isPositive(true)
+                    .userId(1L)
+                    .filmId(1L)
+                    .useful(useful)
+                    .build()));
+        }
+
+        AtomicInteger loads = new AtomicInteger();
+        List<Review> found = reviewLeaderboard.top(1L, 2, limit -> {
+            loads.incrementAndGet();
+            return reviewsDbStorage.findAll(1L, limit);
+        }).stream().toList();
+
+        assertThat(found).isEqualTo(List.of(target.get(1), target.get(0)));
+
+        Review promoted = target.get(2);
+        reviewsDbStorage.updateUseful(promoted.getReviewId(), 20);
+        promoted.setUseful(20);
+        reviewLeaderboard.saved(promoted);
+        reviewsDbStorage.deleteById(target.get(1).getReviewId());
+        reviewLeaderboard.deleted(target.get(1));
+
+        found = reviewLeaderboard.top(1L, 2, limit -> {
+            loads.incrementAndGet();
+            return reviewsDbStorage.findAll(1L, limit);
+        }).stream().toList();
+
+        assertThat(found).isEqualTo(List.of(promoted, target.get(0)));
+        assertThat(found).isEqualTo(reviewsDbStorage.findAll(1L, 2).stream().toList());
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testFindUserRating() {
+        Review created = reviewsDbStorage.create(Review.builder()
+                .content("test")
+                .isPositive(true)
+                .userId(1L)
+                .filmId(1L)
+                .build());
+        Long reviewId = created.getReviewId();
+
+        assertThat(reviewsDbStorage.findUserRating(reviewId, 1L)).isEqualTo(ReviewRating.NONE);
+        assertThat(reviewRatingsCache.sizeInBytes(reviewId)).isPresent();
+
+        reviewsDbStorage.putLike(reviewId, 1L);
+
+        assertThat(reviewsDbStorage.findUserRating(reviewId, 1L)).isEqualTo(ReviewRating.LIKE);
+        assertThat(reviewsDbStorage.isUserLikeReview(reviewId, 1L)).isTrue();
+        assertThat(reviewsDbStorage.isUserDislikeReview(reviewId, 1L)).isFalse();
+
+        reviewsDbStorage.deleteLike(reviewId, 1L);
+        reviewsDbStorage.putDislike(reviewId, 1L);
+
+        assertThat(reviewsDbStorage.findUserRating(reviewId, 1L)).isEqualTo(ReviewRating.DISLIKE);
+
+        reviewsDbStorage.deleteDislike(reviewId, 1L);
+
+        assertThat(reviewsDbStorage.findUserRating(reviewId, 1L)).isEqualTo(ReviewRating.NONE);
+    }
+
     @Test
     void testDeleteReviewByFilmConnection() {
         Review review = Review.builder()
@@ -273,4 +379,21 @@ public class ReviewsDbTests {
 
         assertThat(found).isEmpty();
     }
+
+    @Test
+    void testUpdateUseful() {
+        Review review = Review.builder()
+                .content("test")
+                .isPositive(true)
+                .userId(1L)
+                .filmId(1L)
+                .useful(3)
+                .build();
+
+        Review created = reviewsDbStorage.create(review);
+        assertThat(reviewsDbStorage.updateUseful(created.getReviewId(), 2)).isEqualTo(5);
+        assertThat(reviewsDbStorage.updateUseful(created.getReviewId(), -1)).isEqualTo(4);
+
+        assertThat(reviewsDbStorage.findById(created.getReviewId()).get().getUseful()).isEqualTo(4);
+    }
 }
@@ -0,0 +1,157 @@
+package ru.yandex.practicum.filmorate.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MPA;
+import ru.yandex.practicum.filmorate.model.TrendingWindow;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.dal.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.dal.LikesRepository;
+import ru.yandex.practicum.filmorate.storage.dal.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.TrendingCounters;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@AutoConfigureTestDatabase
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+public class TrendingCountersTests {
+    private final TrendingCounters trendingCounters;
+    private final FilmDbStorage filmStorage;
+    private final UserDbStorage userStorage;
+    private final LikesRepository likesRepository;
+
+    @Test
+    void testOldLikesLeaveShorterWindows() {
+        long filmId = 1_000_001L;
+        long now = System.currentTimeMillis();
+        trendingCounters.add(filmId, now - Duration.ofHours(3).toMillis(), 1, now);
+        trendingCounters.add(filmId, now - Duration.ofMinutes(10).toMillis(), 1, now);
+        trendingCounters.add(filmId, now - Duration.ofDays(8).toMillis(), 1, now);
+
+        assertThat(trendingCounters.count(filmId, TrendingWindow.HOUR, now)).isEqualTo(1);
+        assertThat(trendingCounters.count(filmId, TrendingWindow.DAY, now)).isEqualTo(2);
+        assertThat(trendingCounters.count(filmId, TrendingWindow.WEEK, now)).isEqualTo(2);
+
+        long later = now + Duration.ofHours(2).toMillis();
+        assertThat(trendingCounters.count(filmId, TrendingWindow.HOUR, later)).isEqualTo(0);
+        assertThat(trendingCounters.count(filmId, TrendingWindow.DAY, later)).isEqualTo(2);
+
+        long nextWeek = now + Duration.ofDays(8).toMillis();
+        assertThat(trendingCounters.top(TrendingWindow.WEEK, 10, nextWeek)).doesNotContain(filmId);
+        assertThat(trendingCounters.count(filmId, TrendingWindow.WEEK, nextWeek)).isEqualTo(0);
+    }
+
+    @Test
+    void testEvictionInTopDoesNotLoseConcurrentLikes() throws InterruptedException {
+        long firstFilmId = 2_000_000L;
+        int threads = 4;
+        int filmsPerThread = 2000;
+        long now = System.currentTimeMillis();
+        AtomicBoolean done = new AtomicBoolean();
+
+        // top() постоянно вытесняет счётчики без лайков, пока новые фильмы получают первый лайк
+        Thread evictor = new Thread(() -> {
+            while (!done.get()) {
+                trendingCounters.top(TrendingWindow.WEEK, 10, now);
+            }
+        });
+        evictor.start();
+        List<Thread> likers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long from = firstFilmId + (long) t * filmsPerThread;
+            Thread liker = new Thread(() -> {
+                for (long filmId = from; filmId < from + filmsPerThread; filmId++) {
+                    trendingCounters.add(filmId, now, 1, now);
+                }
+            });
+            likers.add(liker);
+            liker.start();
+        }
+        for (Thread liker : likers) {
+            liker.join();
+        }
+        done.set(true);
+        evictor.join();
+
+        for (long filmId = firstFilmId; filmId < firstFilmId + (long) threads * filmsPerThread; filmId++) {
+            assertThat(trendingCounters.count(filmId, TrendingWindow.WEEK, now)).isEqualTo(1);
+        }
+        // Синтетические счётчики не должны попадать в топ других тестов
+        trendingCounters.rebuild();
+    }
+
+    @Test
+    void testLikesAreCountedAndRebuiltFromTable() {
+        Film film = filmStorage.create(Film.builder()
+                .name("trending")
+                .description("trending")
+                .releaseDate(LocalDate.of(2020, 1, 1))
+                .duration(100L)
+                .mpa(MPA.builder().id(1L).build())
+                .build());
+        User first = userStorage.create(User.builder()
+                .email("trend1@test.ru")
+                .login("trend1")
+                .name("Trend One")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+        User second = userStorage.create(User.builder()
+                .email("trend2@test.ru")
+                .login("trend2")
+                .name("Trend Two")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+
+        likesRepository.create(film.getId(), first.getId());
+        likesRepository.create(film.getId(), second.getId());
+        likesRepository.delete(film.getId(), first.getId());
+        long now = System.currentTimeMillis();
+        assertThat(trendingCounters.count(film.getId(), TrendingWindow.HOUR, now)).isEqualTo(1);
+
+        trendingCounters.rebuild();
+        assertThat(trendingCounters.count(film.getId(), TrendingWindow.HOUR, System.currentTimeMillis())).isEqualTo(1);
+        assertThat(trendingCounters.top(TrendingWindow.HOUR, 100)).contains(film.getId());
+    }
+
+    @Test
+    void testDeletedUserLikesAreSubtracted() {
+        Film film = filmStorage.create(Film.builder()
+                .name("trending removal")
+                .description("trending")
+                .releaseDate(LocalDate.of(2020, 1, 1))
+                .duration(100L)
+                .mpa(MPA.builder().id(1L).build())
+                .build());
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            users.add(userStorage.create(User.builder()
+                    .email("trend-removal" + i + "@test.ru")
+                    .login("trendremoval" + i)
+                    .name("Trend Removal " + i)
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()));
+            likesRepository.create(film.getId(), users.get(i).getId());
+        }
+        // Лайк, учтённый только в памяти, не теряется: счётчики не перечитываются из таблицы
+        long now = System.currentTimeMillis();
+        trendingCounters.add(film.getId(), now, 1, now);
+
+        // Удаляется последний созданный: другие тесты общей базы рассчитывают на пользователя с id = 1
+        userStorage.deleteById(users.get(2).getId());
+
+        assertThat(trendingCounters.count(film.getId(), TrendingWindow.HOUR, System.currentTimeMillis()))
+                .isEqualTo(3);
+        trendingCounters.add(film.getId(), now, -1, now);
+    }
+}
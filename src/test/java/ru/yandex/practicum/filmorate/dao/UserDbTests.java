@@ -6,18 +6,26 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserField;
+import ru.yandex.practicum.filmorate.storage.dal.FriendsRepository;
 import ru.yandex.practicum.filmorate.storage.dal.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
 @SpringBootTest
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 public class UserDbTests {
     private final UserDbStorage userStorage;
+    private final FriendsRepository friendsRepository;
+    private final FriendGraph friendGraph;
 
     @Test
     void testCreateUser() {
@@ -132,4 +140,92 @@ public class UserDbTests {
         boolean notExists = userStorage.containsUser(user.getId());
         assertThat(notExists).isFalse();
     }
+
+    @Test
+    void testFriendSuggestionsRankedByMutualFriends() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(userStorage.create(User.builder()
+                    .email("graph" + i + "@test.ru")
+                    .login("graph" + i)
+                    .name("Graph " + i)
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()).getId());
+        }
+        Long user = ids.get(0);
+        friendsRepository.create(user, ids.get(1));
+        friendsRepository.create(user, ids.get(2));
+        friendsRepository.create(ids.get(1), ids.get(3));
+        friendsRepository.create(ids.get(2), ids.get(3));
+        friendsRepository.create(ids.get(2), ids.get(4));
+
+        assertThat(friendGraph.suggestions(user, 10)).containsExactly(ids.get(3), ids.get(4));
+        // У каждого пользователя просматривается не больше одного друга
+        assertThat(friendGraph.suggestions(user, 10, 1)).hasSize(1);
+
+        friendGraph.load();
+        assertThat(friendGraph.suggestions(user, 10)).containsExactly(ids.get(3), ids.get(4));
+
+        friendsRepository.delete(ids.get(1), ids.get(3));
+        assertThat(friendGraph.suggestions(user, 1)).containsExactly(ids.get(3));
+        friendsRepository.delete(ids.get(2), ids.get(3));
+        assertThat(friendGraph.suggestions(user, 10)).containsExactly(ids.get(4));
+    }
+
+    @Test
+    void testDeletedUserDisappearsFromFriendGraphWithoutReload() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(userStorage.create(User.builder()
+                    .email("graph-delete" + i + "@test.ru")
+                    .login("graphDelete" + i)
+                    .name("Graph Delete " + i)
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()).getId());
+        }
+        Long user = ids.get(0);
+        friendsRepository.create(user, ids.get(1));
+        friendsRepository.create(user, ids.get(2));
+        friendsRepository.create(ids.get(1), ids.get(3));
+        friendsRepository.create(ids.get(2), ids.get(3));
+        friendsRepository.create(ids.get(2), ids.get(4));
+        friendGraph.load();
+
+        userStorage.deleteById(ids.get(3));
+        assertThat(friendGraph.suggestions(user, 10)).containsExactly(ids.get(4));
+
+        // Удалённый друг больше не приводит к своим друзьям
+        userStorage.deleteById(ids.get(2));
+        assertThat(friendGraph.suggestions(user, 10)).isEmpty();
+        assertThat(friendGraph.suggestions(ids.get(2), 10)).isEmpty();
+    }
+
+    @Test
+    void testCommonFriendsAndIsFriendsInOneQuery() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ids.add(userStorage.create(User.builder()
+                    .email("common" + i + "@test.ru")
+                    .login("common" + i)
+                    .name("Common " + i)
+                    .birthday(LocalDate.of(1990, 1, 1))
+                    .build()).getId());
+        }
+        friendsRepository.create(ids.get(0), ids.get(1));
+        friendsRepository.create(ids.get(1), ids.get(0));
+        friendsRepository.create(ids.get(0), ids.get(2));
+        friendsRepository.create(ids.get(0), ids.get(3));
+        friendsRepository.create(ids.get(1), ids.get(3));
+
+        List<User> common = userStorage.findCommonFriends(ids.get(0), ids.get(1), UserField.ALL);
+        assertThat(common).extracting(User::getId).containsExactly(ids.get(3));
+        assertThat(userStorage.findFriends(ids.get(0), UserField.ALL)).extracting(User::getId)
+                .containsExactly(ids.get(1), ids.get(2), ids.get(3));
+
+        assertThat(userStorage.isFriends(ids.get(0), ids.get(1))).isTrue();
+        assertThat(userStorage.isFriends(ids.get(0), ids.get(2))).isFalse();
+
+        assertThat(userStorage.findByIds(List.of(ids.get(2), ids.get(0), -1L), UserField.ALL))
+                .extracting(User::getId).containsExactly(ids.get(2), ids.get(0));
+    }
 }
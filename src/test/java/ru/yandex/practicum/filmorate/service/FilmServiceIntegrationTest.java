@@ -7,12 +7,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.storage.dal.*;
 
 import java.time.LocalDate;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 
 @SpringBootTest
@@ -77,4 +79,79 @@ public class FilmServiceIntegrationTest {
         assertThat(genresRepository.findFilmGenres(film.getId())).doesNotContain(genre);
         assertThat(likesRepository.findAllLikesByFilmId(film.getId())).doesNotContain(user.getId());
     }
+
+    @Test
+    @DisplayName("Фильм должен содержать количество лайков, а id лайкнувших - только по запросу")
+    void findById_shouldReturnLikesCountAndExpandLikesOnDemand() {
+        User user = userStorage.create(User.builder()
+                .email("likes@example.com")
+                .login("likesUser")
+                .name("Likes User")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+
+        Film film = filmStorage.create(Film.builder()
+                .name("Liked Film")
+                .description("Some film for test")
+                .releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(120L)
+                .mpa(MPA.builder().id(1L).name("G").build())
+                .build());
+
+        filmService.likeFilm(film.getId(), user.getId());
+
+        Film found = filmService.findById(film.getId());
+        assertThat(found.getLikesCount()).isEqualTo(1L);
+        assertThat(found.getLikes()).isNull();
+
+        Film expanded = filmService.findById(film.getId(), "likes", FilmField.ALL);
+        assertThat(expanded.getLikes()).containsExactly(user.getId());
+        assertThat(filmService.findLikes(film.getId(), 0, 10)).containsExactly(user.getId());
+    }
+
+    @Test
+    @DisplayName("ETag фильма должен меняться при лайке и зависеть от набора полей")
+    void etag_shouldChangeOnLikeAndDependOnFields() {
+        User user = userStorage.create(User.builder()
+                .email("etag@example.com")
+                .login("etagUser")
+                .name("ETag User")
+                .birthday(LocalDate.of(1990, 1, 1))
+                .build());
+        Film film = filmService.create(Film.builder()
+                .name("ETag Film")
+                .description("Some film for test")
+                .releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(120L)
+                .mpa(MPA.builder().id(1L).build())
+                .build());
+
+        String etag = filmService.etag(film.getId(), null, null);
+
+        assertThat(filmService.etag(film.getId(), null, null)).isEqualTo(etag);
+        assertThat(filmService.etag(film.getId(), null, "id,name")).isNotEqualTo(etag);
+
+        filmService.likeFilm(film.getId(), user.getId());
+
+        assertThat(filmService.etag(film.getId(), null, null)).isNotEqualTo(etag);
+    }
+
+    @Test
+    @DisplayName("Фильм с несуществующим режиссёром не должен сохраняться даже частично")
+    void create_shouldNotSaveFilmWithMissingDirector() {
+        int filmsBefore = filmService.findAll().size();
+
+        Film film = Film.builder()
+                .name("Film without director")
+                .description("Some film for test")
+                .releaseDate(LocalDate.of(2000, 1, 1))
+                .duration(120L)
+                .mpa(MPA.builder().id(1L).name("G").build())
+                .build();
+        film.getGenres().add(genresRepository.findById(1));
+        film.getDirectors().add(Director.builder().id(9999L).name("Nobody").build());
+
+        assertThatThrownBy(() -> filmService.create(film)).isInstanceOf(NotFoundException.class);
+        assertThat(filmService.findAll()).hasSize(filmsBefore);
+    }
 }
@@ -0,0 +1,53 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.service.util.SingleFlight;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SingleFlightTests {
+    @Test
+    void concurrentIdenticalCallsShouldShareOneComputation() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SingleFlight singleFlight = new SingleFlight(registry);
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(executor.submit(() -> singleFlight.execute("popular", List.of(10), () -> {
+                computations.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return List.of(1L, 2L);
+            })));
+        }
+
+        // Даём всем вызовам дойти до ожидания, потом отпускаем вычисление
+        Thread.sleep(200);
+        release.countDown();
+        for (Future<List<Long>> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).containsExactly(1L, 2L);
+        }
+        executor.shutdown();
+
+        double coalesced = registry.get("filmorate.singleflight.calls").tag("result", "coalesced").counter().count();
+        assertThat(computations.get() + (int) coalesced).isEqualTo(callers);
+        assertThat(computations.get()).isLessThan(callers);
+    }
+}